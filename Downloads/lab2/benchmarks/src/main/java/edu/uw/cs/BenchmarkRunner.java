@@ -0,0 +1,22 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks matching the given regex, or all of them, with the GC
+ * profiler so every result comes with its allocation rate (gc.alloc.rate.norm
+ * is bytes allocated per operation).
+ *
+ * Usage: BenchmarkRunner [regex]
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : ".*Benchmark.*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
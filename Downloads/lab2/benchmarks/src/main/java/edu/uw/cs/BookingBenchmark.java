@@ -0,0 +1,74 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Whole transactions through Query on the in-memory storage engine, so the
+ * cost of the service itself can be measured without a database: searching,
+ * booking and cancelling, and paying. Each benchmark thread is its own
+ * logged-in session; run with {@code -t} to add contention on the shared
+ * engine. Bookings go to a dedicated flight with room for every thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingBenchmark {
+    private static final String ORIGIN = "Bench Origin BO";
+    private static final String DEST = "Bench Dest BD";
+
+    private InMemoryStorage storage;
+    private final AtomicInteger users = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        List<Flight> flights = SyntheticFlights.generate(42, 300, 20000);
+        flights.add(new Flight(Integer.MAX_VALUE, 6, "BB", "1", ORIGIN, DEST, 90, Integer.MAX_VALUE, 100));
+        storage = new InMemoryStorage(flights, 1024, 2000);
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Query q;
+
+        @Setup
+        public void open(BookingBenchmark benchmark) {
+            q = new Query();
+            q.openConnection(new Properties(), new InMemoryFlightStore(benchmark.storage));
+            String username = "bench" + benchmark.users.incrementAndGet();
+            q.transaction_createCustomer(username, "password", 1000000);
+            q.transaction_login(username, "password");
+            q.transaction_search(ORIGIN, DEST, true, 6, 1);
+        }
+    }
+
+    @Benchmark
+    public String search(Session session) {
+        return session.q.transaction_search(SyntheticFlights.city(0), SyntheticFlights.city(50), false, 6, 10);
+    }
+
+    @Benchmark
+    public String bookAndCancel(Session session) {
+        return session.q.transaction_cancel(reservationId(session.q.transaction_book(0)));
+    }
+
+    @Benchmark
+    public String bookPayAndCancel(Session session) {
+        int reservationId = reservationId(session.q.transaction_book(0));
+        session.q.transaction_pay(reservationId);
+        return session.q.transaction_cancel(reservationId);
+    }
+
+    /*
+     * the id at the end of "Booked flight(s), reservation ID: [id]\n"
+     */
+    private static int reservationId(String booked) {
+        return Integer.parseInt(booked.substring(booked.lastIndexOf(' ') + 1, booked.length() - 1));
+    }
+}
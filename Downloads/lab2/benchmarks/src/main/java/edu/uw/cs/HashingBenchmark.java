@@ -0,0 +1,48 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PBKDF2 cost of one login or account creation, on the calling thread and
+ * through the shared hashing pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HashingBenchmark {
+    @Param({"1000", "65536"})
+    public int iterations;
+
+    private byte[] salt;
+    private PasswordHasher hasher;
+
+    @Setup
+    public void setup() {
+        salt = new byte[16];
+        new Random(42).nextBytes(salt);
+        int threads = Runtime.getRuntime().availableProcessors();
+        hasher = new PasswordHasher(threads, threads * 16, iterations);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hasher.shutdown();
+    }
+
+    @Benchmark
+    public byte[] inline() {
+        return PasswordHasher.hashInline("user1", salt, iterations);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] pool() {
+        return hasher.hash("user1", salt);
+    }
+}
@@ -0,0 +1,67 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordering search results: the TreeMap keyed on Compare that search used to
+ * build, against sorting the itineraries in place and against the two-way
+ * merge search does now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderingBenchmark {
+    @Param({"10", "100", "1000"})
+    public int itineraries;
+
+    private List<ArrayList<Flight>> unsorted;
+    private List<ArrayList<Flight>> direct;
+    private List<ArrayList<Flight>> oneStop;
+
+    @Setup
+    public void setup() {
+        unsorted = SyntheticFlights.itineraries(42, itineraries);
+        direct = new ArrayList<>();
+        oneStop = new ArrayList<>();
+        for (ArrayList<Flight> itinerary : unsorted) {
+            (itinerary.size() == 1 ? direct : oneStop).add(itinerary);
+        }
+        direct.sort(Compare::compare);
+        oneStop.sort(Compare::compare);
+    }
+
+    @Benchmark
+    public TreeMap<Compare, ArrayList<Flight>> treeMap() {
+        TreeMap<Compare, ArrayList<Flight>> sorted = new TreeMap<>();
+        for (ArrayList<Flight> itinerary : unsorted) {
+            int time = 0;
+            for (Flight flight : itinerary) time += flight.time;
+            int second = itinerary.size() > 1 ? itinerary.get(1).fid : 0;
+            sorted.put(new Compare(time, itinerary.get(0).fid, second), itinerary);
+        }
+        return sorted;
+    }
+
+    @Benchmark
+    public List<ArrayList<Flight>> sort() {
+        List<ArrayList<Flight>> sorted = new ArrayList<>(unsorted);
+        sorted.sort(Compare::compare);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<ArrayList<Flight>> merge() {
+        ItineraryMerger merger = new ItineraryMerger(direct, itineraries);
+        for (ArrayList<Flight> itinerary : oneStop) {
+            if (merger.isFull()) break;
+            merger.offer(itinerary);
+        }
+        return merger.finish();
+    }
+}
@@ -0,0 +1,73 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+/**
+ * Command tokenizing and dispatch. The regex tokenizer FlightService used
+ * before CommandParser is kept here as the baseline. Dispatch runs on a Query
+ * that is not logged in, over commands that are all answered without the
+ * database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+    private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+    private static final String[] DISPATCH = {"book 0", "pay 1", "cancel 1", "reservations", "quit",
+            "search \"Kahului HI\" \"Los Angeles CA\" 0 six 1", "login user1", "fly away"};
+
+    @Param({"search \"Kahului HI\" \"Los Angeles CA\" 0 6 1", "book 0", "create user1 user1 10000"})
+    public String command;
+
+    private CommandParser parser;
+    private Query query;
+    private int next;
+
+    @Setup
+    public void setup() {
+        parser = new CommandParser();
+        query = new Query();
+    }
+
+    @Benchmark
+    public String[] regexTokenize() {
+        Matcher m = Pattern.compile("\"([^\"]*)\"|(\\S+)").matcher(command.trim());
+        List<String> tokens = new ArrayList<>();
+        while (m.find()) {
+            tokens.add(m.group(1) != null ? m.group(1) : m.group(2));
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String[] regexTokenizePrecompiled() {
+        Matcher m = TOKEN.matcher(command.trim());
+        List<String> tokens = new ArrayList<>();
+        while (m.find()) {
+            tokens.add(m.group(1) != null ? m.group(1) : m.group(2));
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        parser.parse(command);
+        bh.consume(parser.count());
+        bh.consume(parser.opcode());
+    }
+
+    @Benchmark
+    public String execute() {
+        next = (next + 1) % DISPATCH.length;
+        return FlightService.execute(query, DISPATCH[next]);
+    }
+}
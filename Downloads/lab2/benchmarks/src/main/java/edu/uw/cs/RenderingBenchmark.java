@@ -0,0 +1,81 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting a search response of ten itineraries: the StringBuffer
+ * concatenation search used to do, against ItineraryRenderer writing into a
+ * reused StringBuilder and straight into a ByteBuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderingBenchmark {
+    private List<ArrayList<Flight>> found;
+    private StringBuilder builder;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        found = SyntheticFlights.itineraries(7, 10);
+        builder = new StringBuilder(4096);
+        buffer = ByteBuffer.allocate(4096);
+    }
+
+    @Benchmark
+    public String concatenation() {
+        StringBuffer sb = new StringBuffer();
+        int itineraryID = 0;
+        for (ArrayList<Flight> itinerary : found) {
+            int time = 0;
+            for (Flight flight : itinerary) time += flight.time;
+            sb.append("Itinerary " + itineraryID + ": " + itinerary.size() + " flight(s), " + time + " minutes\n");
+            for (Flight f : itinerary) {
+                sb.append("ID: " + f.fid + " Day: " + f.dayOfMonth + " Carrier: " + f.carrierId + " Number: "
+                        + f.flightNum + " Origin: " + f.originCity + " Dest: " + f.destCity + " Duration: " + f.time
+                        + " Capacity: " + f.capacity + " Price: " + f.price + "\n");
+            }
+            itineraryID++;
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String renderer() {
+        StringBuilder sb = new StringBuilder();
+        int itineraryID = 0;
+        for (ArrayList<Flight> itinerary : found) {
+            ItineraryRenderer.itinerary(sb, itineraryID++, itinerary);
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public int rendererReusedBuilder() {
+        builder.setLength(0);
+        int itineraryID = 0;
+        for (ArrayList<Flight> itinerary : found) {
+            ItineraryRenderer.itinerary(builder, itineraryID++, itinerary);
+        }
+        return builder.length();
+    }
+
+    @Benchmark
+    public int rendererByteBuffer() throws IOException {
+        buffer.clear();
+        Appendable out = ItineraryRenderer.utf8(buffer);
+        int itineraryID = 0;
+        for (ArrayList<Flight> itinerary : found) {
+            ItineraryRenderer.itinerary(out, itineraryID++, itinerary);
+        }
+        return buffer.position();
+    }
+}
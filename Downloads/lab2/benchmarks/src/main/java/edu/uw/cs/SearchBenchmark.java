@@ -0,0 +1,54 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search over the in-memory FlightIndex, built from synthetic flights in
+ * place of the Flights table: direct and one-stop lookups, merged and
+ * rendered the way transaction_search does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"1", "10", "100"})
+    public int itineraries;
+
+    private FlightIndex index;
+    private String origin;
+    private String dest;
+
+    @Setup
+    public void setup() {
+        index = new FlightIndex(SyntheticFlights.generate(42, 300, 20000));
+        origin = SyntheticFlights.city(0);
+        dest = SyntheticFlights.city(50);
+    }
+
+    @Benchmark
+    public List<Flight> direct() {
+        return index.direct(origin, dest, 6, itineraries);
+    }
+
+    @Benchmark
+    public List<Flight[]> indirect() {
+        return index.indirect(origin, dest, 6, itineraries);
+    }
+
+    @Benchmark
+    public String searchAndRender() {
+        List<ArrayList<Flight>> found = index.search(origin, dest, false, 6, itineraries);
+        StringBuilder sb = new StringBuilder();
+        int itineraryID = 0;
+        for (ArrayList<Flight> itinerary : found) {
+            ItineraryRenderer.itinerary(sb, itineraryID++, itinerary);
+        }
+        return sb.toString();
+    }
+}
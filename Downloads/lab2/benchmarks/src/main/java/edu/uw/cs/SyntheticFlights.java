@@ -0,0 +1,66 @@
+package edu.uw.cs;
+
+import java.util.*;
+
+/**
+ * Reproducible flight data for the benchmarks, shaped roughly like the Flights
+ * table: a few hub cities with many departures and a long tail of small ones.
+ */
+final class SyntheticFlights {
+    static final int DAYS = 31;
+
+    private SyntheticFlights() {
+    }
+
+    static String city(int i) {
+        return "City " + i + " ST";
+    }
+
+    /**
+     * Generates flights between the given number of cities, about
+     * {@code perDay} of them on each day of the month
+     */
+    static List<Flight> generate(long seed, int cities, int perDay) {
+        Random random = new Random(seed);
+        List<Flight> flights = new ArrayList<>(perDay * DAYS);
+        int fid = 1;
+        for (int day = 1; day <= DAYS; day++) {
+            for (int i = 0; i < perDay; i++) {
+                int origin = hub(random, cities);
+                int dest = hub(random, cities);
+                if (origin == dest) dest = (dest + 1) % cities;
+                flights.add(new Flight(fid++, day, "C" + random.nextInt(20), String.valueOf(random.nextInt(9000) + 100),
+                        city(origin), city(dest), 30 + random.nextInt(600), random.nextInt(20),
+                        50 + random.nextInt(1000)));
+            }
+        }
+        return flights;
+    }
+
+    /**
+     * One of a handful of itineraries of one or two flights, as search returns them
+     */
+    static List<ArrayList<Flight>> itineraries(long seed, int count) {
+        Random random = new Random(seed);
+        List<ArrayList<Flight>> itineraries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ArrayList<Flight> itinerary = new ArrayList<>(2);
+            itinerary.add(new Flight(random.nextInt(1_000_000), 6, "DL", "292", "Kahului HI", "Seattle WA",
+                    60 + random.nextInt(600), random.nextInt(20), 100 + random.nextInt(900)));
+            if (random.nextBoolean()) {
+                itinerary.add(new Flight(random.nextInt(1_000_000), 6, "AS", "81", "Seattle WA", "Los Angeles CA",
+                        60 + random.nextInt(600), random.nextInt(20), 100 + random.nextInt(900)));
+            }
+            itineraries.add(itinerary);
+        }
+        return itineraries;
+    }
+
+    /*
+     * skews towards low city numbers so the first few act as hubs
+     */
+    private static int hub(Random random, int cities) {
+        double u = random.nextDouble();
+        return (int) (u * u * cities);
+    }
+}
@@ -8,6 +8,14 @@ CREATE TABLE Itineraries (
     day INTEGER
 );
 
+-- legs of the itineraries of three or more flights, whose int_fid and dest_fid are null
+CREATE TABLE ItineraryLegs (
+    i_id INTEGER NOT NULL,
+    leg INTEGER NOT NULL,
+    fid INTEGER NOT NULL,
+    PRIMARY KEY (i_id, leg)
+);
+
 CREATE TABLE Reservations (
     res_id INTEGER PRIMARY KEY IDENTITY(1,1),
     username VARCHAR(100),
@@ -23,4 +31,17 @@ CREATE TABLE Users (
     pass_hash VARBINARY(100),
     pass_salt VARBINARY(100),
     balance INTEGER
-);
\ No newline at end of file
+);
+
+CREATE TABLE FlightSeats (
+    fid INTEGER PRIMARY KEY,
+    capacity INTEGER NOT NULL,
+    booked INTEGER NOT NULL DEFAULT 0,
+    CHECK (booked >= 0 AND booked <= capacity)
+);
+
+INSERT INTO FlightSeats (fid, capacity, booked) SELECT fid, capacity, 0 FROM Flights;
+
+ALTER DATABASE CURRENT SET ALLOW_SNAPSHOT_ISOLATION ON;
+
+-- Indexes, the Connections table and later schema changes are applied by SchemaMigrator
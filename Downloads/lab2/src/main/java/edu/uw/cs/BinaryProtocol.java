@@ -0,0 +1,169 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed binary form of the FlightService commands.
+ * <p>
+ * A request frame is a 4-byte big-endian length followed by that many bytes:
+ * a one-byte opcode and the arguments of the command in their REPL order.
+ * Strings are a 2-byte length and UTF-8 bytes, ints are 4 bytes big-endian and
+ * the direct flag of a search is a single byte. A response frame is a 4-byte
+ * length followed by the UTF-8 text the REPL would print. Frames are decoded
+ * straight from a ByteBuffer; the only objects created are the String
+ * arguments Query takes.
+ * <p>
+ * Since frames are far shorter than 16 MB, the first byte of a binary session
+ * is always zero, which no text command starts with.
+ */
+final class BinaryProtocol {
+    static final byte LOGIN = 1;
+    static final byte CREATE = 2;
+    static final byte SEARCH = 3;
+    static final byte BOOK = 4;
+    static final byte RESERVATIONS = 5;
+    static final byte PAY = 6;
+    static final byte CANCEL = 7;
+    static final byte QUIT = 8;
+    static final byte TOKEN = 9;
+    static final byte RESUME = 10;
+    static final byte REVOKE = 11;
+    static final byte SEARCH_PAGE = 12;
+    static final byte NEXT_PAGE = 13;
+    static final byte ROUTES = 14;
+
+    static final int MAX_FRAME = 64 * 1024;
+    static final String MALFORMED = "Error: malformed command frame\n";
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Decodes the command in {@code frame}, from its position to its limit,
+     * and runs it on the session.
+     *
+     * @return the response text
+     */
+    static String execute(Query q, ByteBuffer frame) {
+        try {
+            byte opcode = frame.get();
+            switch (opcode) {
+                case LOGIN:
+                    return q.transaction_login(readString(frame), readString(frame));
+                case CREATE:
+                    return q.transaction_createCustomer(readString(frame), readString(frame), frame.getInt());
+                case SEARCH:
+                    return q.transaction_search(readString(frame), readString(frame), frame.get() != 0,
+                            frame.getInt(), frame.getInt());
+                case BOOK:
+                    return q.transaction_book(frame.getInt());
+                case RESERVATIONS:
+                    return q.transaction_reservations();
+                case PAY:
+                    return q.transaction_pay(frame.getInt());
+                case CANCEL:
+                    return q.transaction_cancel(frame.getInt());
+                case QUIT:
+                    return "Goodbye\n";
+                case TOKEN:
+                    return q.transaction_sessionToken();
+                case RESUME:
+                    return q.transaction_resume(readString(frame));
+                case REVOKE:
+                    return q.transaction_revokeSessions();
+                case SEARCH_PAGE:
+                    return q.transaction_searchPage(readString(frame), readString(frame), frame.get() != 0,
+                            frame.getInt(), frame.getInt());
+                case NEXT_PAGE:
+                    return q.transaction_nextPage(readString(frame));
+                case ROUTES:
+                    return q.transaction_routes(readString(frame), readString(frame), frame.getInt(),
+                            frame.getInt(), frame.getInt());
+                default:
+                    return "Error: unrecognized opcode " + opcode + "\n";
+            }
+        } catch (BufferUnderflowException ex) {
+            return MALFORMED;
+        }
+    }
+
+    /**
+     * Reads the next request frame into {@code buffer}, growing it when the
+     * frame does not fit, and flips it ready for {@link #execute}.
+     *
+     * @return the buffer holding the frame, or null at the end of the stream
+     * @throws IOException if the stream ends inside a frame or the frame is
+     *                     larger than {@link #MAX_FRAME}
+     */
+    static ByteBuffer readFrame(DataInputStream in, ByteBuffer buffer) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME) throw new IOException("Invalid frame length " + length);
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        in.readFully(buffer.array(), buffer.arrayOffset(), length);
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Writes a response frame
+     */
+    static void writeResponse(DataOutputStream out, String response) throws IOException {
+        byte[] text = response.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(text.length);
+        out.write(text);
+    }
+
+    /**
+     * Writes a request frame for a command with the given arguments, each a
+     * String, Integer or Boolean in REPL order; used by clients and tools.
+     */
+    static void writeRequest(DataOutputStream out, byte opcode, Object... args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(opcode);
+        for (Object arg : args) {
+            if (arg instanceof String) {
+                byte[] text = ((String) arg).getBytes(StandardCharsets.UTF_8);
+                body.writeShort(text.length);
+                body.write(text);
+            } else if (arg instanceof Integer) {
+                body.writeInt((Integer) arg);
+            } else if (arg instanceof Boolean) {
+                body.writeByte((Boolean) arg ? 1 : 0);
+            } else {
+                throw new IllegalArgumentException("Unsupported argument " + arg);
+            }
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /*
+     * a 2-byte length and that many UTF-8 bytes
+     */
+    private static String readString(ByteBuffer frame) {
+        int length = frame.getShort() & 0xFFFF;
+        if (length > frame.remaining()) throw new BufferUnderflowException();
+        String value;
+        if (frame.hasArray()) {
+            value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+            frame.position(frame.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            frame.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,284 @@
+package edu.uw.cs;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Group commit for bookings.
+ * <p>
+ * With {@code flightservice.book.group_commit} set, every session hands its
+ * bookings to the process-wide coordinator instead of running a transaction
+ * of its own. A single worker thread takes the first waiting request, gathers
+ * the ones that arrive within {@code flightservice.book.batch_window_ms} of
+ * it, up to {@code flightservice.book.batch_size}, and books the whole batch
+ * in one read-write transaction on a store of its own. It locks and reads the
+ * same-day reservations of the batch's users once per day and the seats left
+ * on all of its flights at once, decides every request in memory, then takes
+ * the seats in one batched update and inserts the reservations.
+ * <p>
+ * Requests are decided in the order they arrived, so each gets the result it
+ * would have had if the batch had been booked one request at a time in that
+ * order, and reservation ids follow that order. Contention failures retry the
+ * whole batch under the {@link RetryPolicy}; if the batch fails for any other
+ * reason, its requests are booked again one by one so a bad request only
+ * fails itself. An {@link Error} fails the whole batch, and the worker goes on
+ * with the next one, so no session is left waiting.
+ */
+final class BookingCoordinator {
+    /** Result of a request whose user already has a reservation that day */
+    static final int SAME_DAY = -1;
+    /** Result of a request with a flight that has no seats left */
+    static final int FULL = -2;
+
+    // shared instance, configured by the first session that opens a connection
+    private static BookingCoordinator shared;
+
+    private final Properties configProps;
+    private final RetryPolicy retry;
+    private final TransactionMetrics metrics;
+    private final long windowNanos;
+    private final int batchSize;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    // store of the worker thread, opened again after a batch fails for good
+    private FlightStore store;
+
+    /**
+     * Whether {@code flightservice.book.group_commit} is set
+     */
+    static boolean enabled(Properties configProps) {
+        return Boolean.parseBoolean(configProps.getProperty("flightservice.book.group_commit", "false"));
+    }
+
+    /**
+     * Returns the process-wide coordinator, creating it from the
+     * {@code flightservice.book.*} settings in {@code configProps} on first
+     * use.
+     */
+    static synchronized BookingCoordinator shared(Properties configProps) {
+        if (shared == null) {
+            RetryPolicy retry = RetryPolicy.shared(configProps);
+            shared = new BookingCoordinator(configProps, retry, TransactionMetrics.shared(configProps, retry),
+                    Long.parseLong(configProps.getProperty("flightservice.book.batch_window_ms", "2")),
+                    Integer.parseInt(configProps.getProperty("flightservice.book.batch_size", "64")));
+        }
+        return shared;
+    }
+
+    BookingCoordinator(Properties configProps, RetryPolicy retry, TransactionMetrics metrics, long windowMillis,
+                       int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid flightservice.book.batch_size " + batchSize);
+        }
+        this.configProps = configProps;
+        this.retry = retry;
+        this.metrics = metrics;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.batchSize = batchSize;
+        Thread worker = new Thread(this::work, "booking-coordinator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Books the itinerary for the user in the next batch and waits for that
+     * batch to commit
+     *
+     * @return the new reservation id, or {@link #SAME_DAY} or {@link #FULL}
+     * @throws SQLException if the booking failed
+     */
+    int book(String username, List<Flight> itinerary) throws SQLException {
+        Request request = new Request(username, itinerary);
+        queue.add(request);
+        return request.await();
+    }
+
+    /*
+     * gathers and books batches until the process exits
+     */
+    private void work() {
+        List<Request> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < batchSize) {
+                    // returns at once with whatever is waiting after the deadline
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+            bookAll(batch);
+            batch.clear();
+        }
+    }
+
+    /*
+     * books the batch and hands every request its result
+     */
+    private void bookAll(List<Request> batch) {
+        try {
+            int[] results = run(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).finish(results[i], null);
+            }
+        } catch (Throwable ex) {
+            closeStore();
+            if (batch.size() > 1 && !(ex instanceof Error)
+                    && !(ex instanceof SQLException && RetryPolicy.isRetryable((SQLException) ex))) {
+                for (Request request : batch) {
+                    bookAll(Collections.singletonList(request));
+                }
+                return;
+            }
+            SQLException failure = ex instanceof SQLException ? (SQLException) ex
+                    : new SQLException("Booking failed", ex);
+            for (Request request : batch) {
+                request.finish(0, failure);
+            }
+        }
+    }
+
+    /*
+     * one transaction for the batch under the retry policy, recorded as a "bookbatch"
+     */
+    private int[] run(List<Request> batch) throws SQLException {
+        if (store == null) {
+            try {
+                store = Query.openStore(configProps);
+            } catch (IOException ex) {
+                throw new SQLException("Cannot open the booking store", ex);
+            }
+            store.prepare();
+        }
+        long start = System.nanoTime();
+        long statements = store.statements();
+        boolean ok = false;
+        try {
+            int[] results = retry.run("bookbatch", () -> decide(batch), store::rollback);
+            ok = true;
+            return results;
+        } finally {
+            metrics.record("bookbatch", System.nanoTime() - start, store.statements() - statements, !ok);
+        }
+    }
+
+    /*
+     * decides the requests in arrival order against the rows read for the whole batch, then writes
+     * the accepted ones
+     */
+    private int[] decide(List<Request> batch) throws SQLException {
+        store.begin(TransactionProfile.READ_WRITE);
+        Map<Integer, Set<String>> usersByDay = new TreeMap<>();
+        Map<Integer, Flight> flights = new TreeMap<>();
+        for (Request request : batch) {
+            usersByDay.computeIfAbsent(request.day(), day -> new LinkedHashSet<>()).add(request.username);
+            for (Flight leg : request.itinerary) {
+                flights.put(leg.fid, leg);
+            }
+        }
+        // day and lower-cased username of everyone who holds a reservation
+        Set<String> booked = new HashSet<>();
+        for (Map.Entry<Integer, Set<String>> day : usersByDay.entrySet()) {
+            for (String username : store.reservedOnDay(day.getValue(), day.getKey())) {
+                booked.add(dayKey(day.getKey(), username));
+            }
+        }
+        Map<Integer, Integer> left = store.seatsLeftForUpdate(flights.values());
+
+        // 0 marks an accepted request until its reservation id is known
+        int[] results = new int[batch.size()];
+        Map<Integer, Integer> taken = new TreeMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i);
+            String key = dayKey(request.day(), request.username);
+            if (booked.contains(key)) {
+                results[i] = SAME_DAY;
+                continue;
+            }
+            boolean room = true;
+            for (Flight leg : request.itinerary) {
+                if (left.getOrDefault(leg.fid, 0) <= 0) room = false;
+            }
+            if (!room) {
+                results[i] = FULL;
+                continue;
+            }
+            for (Flight leg : request.itinerary) {
+                left.merge(leg.fid, -1, Integer::sum);
+                taken.merge(leg.fid, 1, Integer::sum);
+            }
+            booked.add(key);
+        }
+        store.takeSeats(taken);
+        for (int i = 0; i < batch.size(); i++) {
+            if (results[i] == 0) {
+                results[i] = store.book(batch.get(i).username, batch.get(i).itinerary);
+            }
+        }
+        store.commit();
+        return results;
+    }
+
+    private static String dayKey(int dayOfMonth, String username) {
+        return dayOfMonth + " " + username.toLowerCase(Locale.ROOT);
+    }
+
+    private void closeStore() {
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (SQLException ex) {
+            // reopened for the next batch either way
+        }
+        store = null;
+    }
+
+    /*
+     * a booking waiting for its batch
+     */
+    private static final class Request {
+        final String username;
+        final List<Flight> itinerary;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int result;
+        private SQLException failure;
+
+        Request(String username, List<Flight> itinerary) {
+            this.username = username;
+            this.itinerary = itinerary;
+        }
+
+        int day() {
+            return itinerary.get(0).dayOfMonth;
+        }
+
+        void finish(int result, SQLException failure) {
+            this.result = result;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /*
+         * waits even when interrupted, as the batch may commit the booking either way
+         */
+        int await() throws SQLException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (failure != null) throw failure;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package edu.uw.cs;
+
+import java.util.Arrays;
+
+/**
+ * Splits a text command into tokens without regular expressions or
+ * intermediate arrays of Strings.
+ * <p>
+ * Tokens follow the REPL syntax: a double-quoted run of characters is a single
+ * token without its quotes, anything else is split on whitespace. The parser
+ * only records where each token starts and ends, so a parser can be reused for
+ * every command of a session; Strings are created only for the arguments that
+ * are handed on to Query, and integers are parsed in place.
+ */
+final class CommandParser {
+    // command words, indexed by their opcode
+    private static final String[] WORDS = new String[BinaryProtocol.ROUTES + 1];
+
+    static {
+        WORDS[BinaryProtocol.LOGIN] = "login";
+        WORDS[BinaryProtocol.CREATE] = "create";
+        WORDS[BinaryProtocol.SEARCH] = "search";
+        WORDS[BinaryProtocol.BOOK] = "book";
+        WORDS[BinaryProtocol.RESERVATIONS] = "reservations";
+        WORDS[BinaryProtocol.PAY] = "pay";
+        WORDS[BinaryProtocol.CANCEL] = "cancel";
+        WORDS[BinaryProtocol.QUIT] = "quit";
+        WORDS[BinaryProtocol.TOKEN] = "token";
+        WORDS[BinaryProtocol.RESUME] = "resume";
+        WORDS[BinaryProtocol.REVOKE] = "revoke";
+        WORDS[BinaryProtocol.SEARCH_PAGE] = "searchpage";
+        WORDS[BinaryProtocol.NEXT_PAGE] = "next";
+        WORDS[BinaryProtocol.ROUTES] = "routes";
+    }
+
+    private CharSequence command;
+    private int count;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+
+    /**
+     * Tokenizes the command, replacing whatever was parsed before
+     */
+    void parse(CharSequence command) {
+        this.command = command;
+        this.count = 0;
+        int pos = 0;
+        int end = command.length();
+        // skip what String.trim would
+        while (pos < end && command.charAt(pos) <= ' ') pos++;
+        while (end > pos && command.charAt(end - 1) <= ' ') end--;
+
+        while (pos < end) {
+            char c = command.charAt(pos);
+            if (isWhitespace(c)) {
+                pos++;
+                continue;
+            }
+            if (c == '"') {
+                int close = indexOfQuote(pos + 1, end);
+                if (close >= 0) {
+                    add(pos + 1, close);
+                    pos = close + 1;
+                    continue;
+                }
+            }
+            int start = pos;
+            while (pos < end && !isWhitespace(command.charAt(pos))) pos++;
+            add(start, pos);
+        }
+    }
+
+    /**
+     * Number of tokens in the last command
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Opcode of the command word, or 0 if it is not a known command
+     */
+    int opcode() {
+        if (count == 0) return 0;
+        for (int op = 1; op < WORDS.length; op++) {
+            if (equals(0, WORDS[op])) return op;
+        }
+        return 0;
+    }
+
+    /**
+     * Whether token i is exactly the given text
+     */
+    boolean equals(int i, String text) {
+        int start = starts[i];
+        int length = ends[i] - start;
+        if (length != text.length()) return false;
+        for (int k = 0; k < length; k++) {
+            if (command.charAt(start + k) != text.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Token i as a String
+     */
+    String string(int i) {
+        return command.subSequence(starts[i], ends[i]).toString();
+    }
+
+    /**
+     * Parses token i the way {@link Integer#parseInt(String)} does
+     *
+     * @throws NumberFormatException if the token is not an int
+     */
+    int parseInt(int i) {
+        int pos = starts[i];
+        int end = ends[i];
+        if (pos >= end) throw invalidInt(i);
+        boolean negative = false;
+        int limit = -Integer.MAX_VALUE;
+        char first = command.charAt(pos);
+        if (first < '0') {
+            if (first == '-') {
+                negative = true;
+                limit = Integer.MIN_VALUE;
+            } else if (first != '+') {
+                throw invalidInt(i);
+            }
+            if (++pos == end) throw invalidInt(i);
+        }
+        // accumulate negatively so Integer.MIN_VALUE does not overflow
+        int multmin = limit / 10;
+        int result = 0;
+        while (pos < end) {
+            int digit = Character.digit(command.charAt(pos++), 10);
+            if (digit < 0 || result < multmin) throw invalidInt(i);
+            result *= 10;
+            if (result < limit + digit) throw invalidInt(i);
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private NumberFormatException invalidInt(int i) {
+        return new NumberFormatException("For input string: \"" + string(i) + "\"");
+    }
+
+    private void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private int indexOfQuote(int from, int end) {
+        for (int k = from; k < end; k++) {
+            if (command.charAt(k) == '"') return k;
+        }
+        return -1;
+    }
+
+    /*
+     * the characters matched by \s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
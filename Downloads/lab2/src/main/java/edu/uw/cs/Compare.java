@@ -0,0 +1,55 @@
+package edu.uw.cs;
+
+import java.util.List;
+
+/*
+ * Object used to compare Itineraries, sorts first by time, then by first fid, then second fid
+ */
+class Compare implements Comparable<Compare> {
+    public int totalTime;
+    public int fid;
+    public int fid_2;
+
+    public Compare(int totalTime, int fid, int fid_2) {
+        this.totalTime = totalTime;
+        this.fid = fid;
+        this.fid_2 = fid_2;
+    }
+
+    /*
+     * the key of an itinerary of one or two flights, with a second fid of 0 for direct ones
+     */
+    public static Compare of(List<Flight> itinerary) {
+        int totalTime = 0;
+        for (Flight flight : itinerary) totalTime += flight.time;
+        return new Compare(totalTime, itinerary.get(0).fid, itinerary.size() > 1 ? itinerary.get(1).fid : 0);
+    }
+
+    /*
+     * orders two itineraries the same way as their Compare keys, comparing the fids of any further
+     * legs in turn; a missing leg counts as fid 0
+     */
+    public static int compare(List<Flight> a, List<Flight> b) {
+        int totalA = 0;
+        int totalB = 0;
+        for (Flight flight : a) totalA += flight.time;
+        for (Flight flight : b) totalB += flight.time;
+        if (totalA != totalB) {
+            return Integer.compare(totalA, totalB);
+        }
+        for (int i = 0; i < Math.max(a.size(), b.size()); i++) {
+            int fidA = i < a.size() ? a.get(i).fid : 0;
+            int fidB = i < b.size() ? b.get(i).fid : 0;
+            if (fidA != fidB) return Integer.compare(fidA, fidB);
+        }
+        return 0;
+    }
+
+    public int compareTo(Compare other) {
+        if (this.totalTime != other.totalTime) {
+            return Integer.compare(this.totalTime, other.totalTime);
+        } else if (this.fid != other.fid) {
+            return Integer.compare(this.fid, other.fid);
+        } else return Integer.compare(this.fid_2, other.fid_2);
+    }
+}
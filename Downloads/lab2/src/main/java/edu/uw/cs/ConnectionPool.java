@@ -0,0 +1,412 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+
+/**
+ * Bounded pool of JDBC connections shared by every Query session that uses
+ * the same database URL.
+ * <p>
+ * Connections are handed out most-recently-used first, validated when they
+ * have been idle for longer than the validation interval, and closed by a
+ * background sweeper once they have been idle past the idle timeout (never
+ * dropping below the minimum size). Time spent waiting for a connection is
+ * tracked so pool sizing can be checked against real load. Each pooled
+ * connection keeps its own {@link StatementRegistry} for as long as it lives.
+ */
+class ConnectionPool {
+    // shared pools, one per connection URL
+    private static final Map<String, ConnectionPool> pools = new HashMap<>();
+
+    /** Isolation level every connection is handed out with */
+    private static final int ISOLATION = Connection.TRANSACTION_SERIALIZABLE;
+
+    private final String url;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int validationTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private final Map<Connection, StatementRegistry> registries =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+    private int open;
+    private boolean closed;
+    private final ScheduledExecutorService sweeper;
+
+    // metrics
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    /**
+     * Returns the pool for the given URL, creating it from the
+     * {@code flightservice.pool.*} settings in {@code configProps} on first use.
+     */
+    static ConnectionPool shared(String url, Properties configProps) throws SQLException {
+        ConnectionPool pool;
+        synchronized (pools) {
+            pool = pools.get(url);
+            if (pool == null) {
+                pool = new ConnectionPool(url,
+                        Integer.parseInt(configProps.getProperty("flightservice.pool.min_size", "2")),
+                        Integer.parseInt(configProps.getProperty("flightservice.pool.max_size", "32")),
+                        Long.parseLong(configProps.getProperty("flightservice.pool.max_wait_ms", "30000")),
+                        Long.parseLong(configProps.getProperty("flightservice.pool.idle_timeout_ms", "600000")),
+                        Long.parseLong(configProps.getProperty("flightservice.pool.validation_interval_ms", "30000")),
+                        Integer.parseInt(configProps.getProperty("flightservice.pool.validation_timeout_s", "5")));
+                pools.put(url, pool);
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Every shared pool
+     */
+    static List<ConnectionPool> all() {
+        synchronized (pools) {
+            return new ArrayList<>(pools.values());
+        }
+    }
+
+    /**
+     * Closes every shared pool
+     */
+    static void closeAll() {
+        synchronized (pools) {
+            for (ConnectionPool pool : pools.values()) {
+                pool.close();
+            }
+            pools.clear();
+        }
+    }
+
+    ConnectionPool(String url, int minSize, int maxSize, long maxWaitMillis, long idleTimeoutMillis,
+                   long validationIntervalMillis, int validationTimeoutSeconds) throws SQLException {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size min=" + minSize + " max=" + maxSize);
+        }
+        this.url = url;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+
+        try {
+            for (int i = 0; i < minSize; i++) {
+                idle.push(new Idle(connect()));
+                open++;
+            }
+        } catch (SQLException e) {
+            // the pool is never handed out, so nothing else would close them
+            for (Idle entry : idle) {
+                closeQuietly(entry.conn);
+            }
+            throw e;
+        }
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured maximum wait time
+     * for one to become available.
+     *
+     * @throws SQLException if no connection became available in time or a new
+     *                      connection could not be opened
+     */
+    Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        boolean waited = false;
+        while (true) {
+            Idle candidate = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (!closed && idle.isEmpty() && open >= maxSize) {
+                    waited = true;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        recordWait(start, true);
+                        throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a connection",
+                                "08001");
+                    }
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection", "08001", e);
+                    }
+                }
+                if (closed) throw new SQLException("Connection pool is closed", "08003");
+                if (!idle.isEmpty()) {
+                    candidate = idle.pop();
+                } else {
+                    open++;
+                    create = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    Connection conn = connect();
+                    recordWait(start, waited);
+                    return conn;
+                } catch (SQLException e) {
+                    discarded();
+                    throw e;
+                }
+            }
+            if (validate(candidate)) {
+                recordWait(start, waited);
+                return candidate.conn;
+            }
+            // stale connection, drop it and try again
+            destroy(candidate.conn);
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool, rolling back anything left
+     * uncommitted and restoring auto-commit and the pool's isolation level.
+     */
+    void release(Connection conn) {
+        if (conn == null) return;
+        try {
+            if (conn.isClosed()) {
+                destroy(conn);
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            // the driver caches the level, so this only goes to the server when it changed
+            if (conn.getTransactionIsolation() != ISOLATION) {
+                conn.setTransactionIsolation(ISOLATION);
+            }
+        } catch (SQLException e) {
+            destroy(conn);
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                closeQuietly(conn);
+                open--;
+                destroyed.incrementAndGet();
+                return;
+            }
+            idle.push(new Idle(conn));
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the prepared statement registry of a pooled connection
+     */
+    StatementRegistry statements(Connection conn) {
+        return registries.computeIfAbsent(conn, StatementRegistry::new);
+    }
+
+    /**
+     * Closes a borrowed connection that is known to be broken instead of
+     * returning it to the pool.
+     */
+    void destroy(Connection conn) {
+        closeQuietly(conn);
+        discarded();
+        destroyed.incrementAndGet();
+    }
+
+    /**
+     * Closes idle connections and stops handing out new ones
+     */
+    void close() {
+        sweeper.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            for (Idle entry : idle) {
+                closeQuietly(entry.conn);
+                open--;
+                destroyed.incrementAndGet();
+            }
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int openConnections() {
+        lock.lock();
+        try {
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int idleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long borrows() {
+        return borrows.get();
+    }
+
+    long waits() {
+        return waits.get();
+    }
+
+    long timeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Total time spent waiting for connections, in nanoseconds
+     */
+    long waitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * Longest single wait for a connection, in nanoseconds
+     */
+    long maxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long borrowed = borrows();
+        return String.format("ConnectionPool[open=%d idle=%d min=%d max=%d borrows=%d waits=%d timeouts=%d "
+                        + "avgWaitMs=%.3f maxWaitMs=%.3f created=%d destroyed=%d validationFailures=%d]",
+                openConnections(), idleConnections(), minSize, maxSize, borrowed, waits(), timeouts(),
+                borrowed == 0 ? 0.0 : waitNanos() / 1e6 / borrowed, maxWaitNanos() / 1e6,
+                created.get(), destroyed.get(), validationFailures.get());
+    }
+
+    private Connection connect() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try {
+            conn.setAutoCommit(true);
+            conn.setTransactionIsolation(ISOLATION);
+        } catch (SQLException e) {
+            closeQuietly(conn);
+            throw e;
+        }
+        created.incrementAndGet();
+        return conn;
+    }
+
+    private boolean validate(Idle entry) {
+        if (System.currentTimeMillis() - entry.since < validationIntervalMillis) return true;
+        try {
+            if (entry.conn.isValid(validationTimeoutSeconds)) return true;
+        } catch (SQLException e) {
+            // treated as invalid below
+        }
+        validationFailures.incrementAndGet();
+        return false;
+    }
+
+    private void recordWait(long start, boolean waited) {
+        borrows.incrementAndGet();
+        if (!waited) return;
+        long elapsed = System.nanoTime() - start;
+        waits.incrementAndGet();
+        waitNanos.addAndGet(elapsed);
+        long max;
+        while (elapsed > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, elapsed)) {
+            // retry until the larger wait is recorded
+        }
+    }
+
+    private void discarded() {
+        lock.lock();
+        try {
+            open--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIdle() {
+        List<Connection> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            // oldest idle connections sit at the tail of the deque
+            while (open > minSize && !idle.isEmpty() && now - idle.peekLast().since >= idleTimeoutMillis) {
+                expired.add(idle.pollLast().conn);
+                open--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Connection conn : expired) {
+            closeQuietly(conn);
+            destroyed.incrementAndGet();
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        StatementRegistry registry = registries.remove(conn);
+        if (registry != null) {
+            registry.close();
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // already unusable
+        }
+    }
+
+    /*
+     * a pooled connection and the time it was returned
+     */
+    private static final class Idle {
+        final Connection conn;
+        final long since;
+
+        Idle(Connection conn) {
+            this.conn = conn;
+            this.since = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.uw.cs;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A class to store flight information. Instances are immutable so they can be
+ * shared between sessions.
+ */
+class Flight {
+    public final int fid;
+    public final int dayOfMonth;
+    public final String carrierId;
+    public final String flightNum;
+    public final String originCity;
+    public final String destCity;
+    public final int time;
+    public final int capacity;
+    public final int price;
+
+    public Flight(int fid, int dayOfMonth, String carrierId, String flightNum, String originCity,
+                  String destCity, int time, int capacity, int price) {
+        this.fid = fid;
+        this.dayOfMonth = dayOfMonth;
+        this.carrierId = carrierId;
+        this.flightNum = flightNum;
+        this.originCity = originCity;
+        this.destCity = destCity;
+        this.time = time;
+        this.capacity = capacity;
+        this.price = price;
+    }
+
+    /**
+     * Builds a flight from the columns fid, day_of_month, carrier_id,
+     * flight_num, origin_city, dest_city, actual_time, capacity and price,
+     * in that order, starting at the given column of a row
+     */
+    static Flight read(ResultSet row, int first) throws SQLException {
+        return new Flight(row.getInt(first), row.getInt(first + 1), row.getString(first + 2),
+                row.getString(first + 3), row.getString(first + 4), row.getString(first + 5),
+                row.getInt(first + 6), row.getInt(first + 7), row.getInt(first + 8));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128);
+        ItineraryRenderer.flight(sb, this);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,350 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * In-memory adjacency index over the non-canceled rows of the Flights table.
+ * Flights are grouped by day of month, then origin city, then destination
+ * city, and every group is kept sorted by (actual_time, fid) so direct and
+ * one-stop searches can be answered without going back to the database.
+ * <p>
+ * City names are matched case-insensitively, the same way the default SQL
+ * Server collation compares them.
+ */
+class FlightIndex {
+    private static final String LOAD_FLIGHTS = "SELECT fid, day_of_month, carrier_id, flight_num, origin_city, " +
+            "dest_city, actual_time, capacity, price FROM Flights WHERE canceled = 0";
+    private static final int DAYS = 32;
+
+    // shared instance, loaded once per process
+    private static FlightIndex shared;
+
+    // day -> origin -> destination -> flights sorted by (time, fid)
+    private final List<Map<String, Map<String, List<Flight>>>> byDay;
+    private final int size;
+
+    /**
+     * Returns the process-wide index, loading it through the given connection
+     * the first time it is requested.
+     */
+    static synchronized FlightIndex shared(Connection conn) throws SQLException {
+        if (shared == null) {
+            shared = load(conn);
+        }
+        return shared;
+    }
+
+    /**
+     * Reads every non-canceled flight through the given connection
+     */
+    static FlightIndex load(Connection conn) throws SQLException {
+        List<Flight> flights = new ArrayList<>();
+        try (Statement statement = conn.createStatement();
+             ResultSet results = statement.executeQuery(LOAD_FLIGHTS)) {
+            while (results.next()) {
+                flights.add(new Flight(results.getInt("fid"), results.getInt("day_of_month"),
+                        results.getString("carrier_id"), results.getString("flight_num"),
+                        results.getString("origin_city"), results.getString("dest_city"),
+                        results.getInt("actual_time"), results.getInt("capacity"), results.getInt("price")));
+            }
+        }
+        return new FlightIndex(flights);
+    }
+
+    FlightIndex(Collection<Flight> flights) {
+        byDay = new ArrayList<>(DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            byDay.add(new HashMap<>());
+        }
+        int count = 0;
+        for (Flight flight : flights) {
+            if (flight.dayOfMonth < 0 || flight.dayOfMonth >= DAYS) continue;
+            byDay.get(flight.dayOfMonth)
+                    .computeIfAbsent(key(flight.originCity), k -> new HashMap<>())
+                    .computeIfAbsent(key(flight.destCity), k -> new ArrayList<>())
+                    .add(flight);
+            count++;
+        }
+        Comparator<Flight> byTime = (a, b) -> a.time != b.time ? Integer.compare(a.time, b.time)
+                : Integer.compare(a.fid, b.fid);
+        for (Map<String, Map<String, List<Flight>>> origins : byDay) {
+            for (Map<String, List<Flight>> destinations : origins.values()) {
+                for (List<Flight> legs : destinations.values()) {
+                    legs.sort(byTime);
+                }
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Number of flights held in the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns up to {@code limit} direct flights between the two cities on the
+     * given day, sorted by flight time and then fid.
+     */
+    List<Flight> direct(String originCity, String destinationCity, int dayOfMonth, int limit) {
+        List<Flight> legs = legs(dayOfMonth, key(originCity), key(destinationCity));
+        return legs.subList(0, Math.max(0, Math.min(limit, legs.size())));
+    }
+
+    /**
+     * Returns up to {@code limit} one-stop itineraries between the two cities
+     * on the given day, in the same order as {@code Compare}: total flight
+     * time, then the first fid, then the second fid.
+     */
+    List<Flight[]> indirect(String originCity, String destinationCity, int dayOfMonth, int limit) {
+        if (limit <= 0 || dayOfMonth < 0 || dayOfMonth >= DAYS) return Collections.emptyList();
+        Map<String, Map<String, List<Flight>>> origins = byDay.get(dayOfMonth);
+        Map<String, List<Flight>> fromOrigin = origins.get(key(originCity));
+        if (fromOrigin == null) return Collections.emptyList();
+        String destination = key(destinationCity);
+
+        // bounded max-heap holding the best limit itineraries seen so far; limit comes from the user,
+        // so the heap grows with the itineraries it holds
+        Comparator<Flight[]> order = FlightIndex::compare;
+        PriorityQueue<Flight[]> best = new PriorityQueue<>(order.reversed());
+        for (Map.Entry<String, List<Flight>> stop : fromOrigin.entrySet()) {
+            Map<String, List<Flight>> fromStop = origins.get(stop.getKey());
+            if (fromStop == null) continue;
+            List<Flight> secondLegs = fromStop.get(destination);
+            if (secondLegs == null) continue;
+            for (Flight first : stop.getValue()) {
+                for (Flight second : secondLegs) {
+                    // legs are sorted by time, so later pairs can only be slower
+                    if (best.size() == limit && first.time + second.time > totalTime(best.peek())) break;
+                    Flight[] candidate = {first, second};
+                    if (best.size() < limit) {
+                        best.add(candidate);
+                    } else if (compare(candidate, best.peek()) < 0) {
+                        best.poll();
+                        best.add(candidate);
+                    }
+                }
+            }
+        }
+        List<Flight[]> sorted = new ArrayList<>(best);
+        sorted.sort(order);
+        return sorted;
+    }
+
+    /**
+     * Returns up to {@code limit} direct and, unless {@code directOnly} is
+     * set, one-stop itineraries in Compare order, with the city names spelled
+     * the way the caller searched for them like the database query does.
+     */
+    List<ArrayList<Flight>> search(String originCity, String destinationCity, boolean directOnly, int dayOfMonth,
+                                   int limit) {
+        List<ArrayList<Flight>> direct = new ArrayList<>();
+        for (Flight f : direct(originCity, destinationCity, dayOfMonth, limit)) {
+            direct.add(itinerary(null, f, originCity, destinationCity));
+        }
+        if (directOnly || direct.size() >= limit) return direct;
+
+        ItineraryMerger merger = new ItineraryMerger(direct, limit);
+        for (Flight[] legs : indirect(originCity, destinationCity, dayOfMonth, limit - direct.size())) {
+            merger.offer(itinerary(legs[0], legs[1], originCity, destinationCity));
+        }
+        return merger.finish();
+    }
+
+    /**
+     * Returns the direct and, unless {@code directOnly} is set, one-stop
+     * itineraries that come after the {@code after} key in Compare order, or
+     * all of them if it is null, one at a time as they are read.
+     * <p>
+     * Unlike {@link #search}, direct flights get no precedence; itineraries
+     * come in pure Compare order. Every first leg out of the origin starts a
+     * run of second legs, sorted by time and fid like the run itself, that is
+     * positioned past the key with a binary search. A heap of the runs then
+     * yields the itineraries in order, so reading a page costs about the same
+     * however deep it starts.
+     */
+    Iterator<ArrayList<Flight>> after(String originCity, String destinationCity, boolean directOnly,
+                                      int dayOfMonth, Compare after) {
+        Compare key = after != null ? after : new Compare(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        PriorityQueue<Run> runs = new PriorityQueue<>();
+        String origin = key(originCity);
+        String destination = key(destinationCity);
+        new Run(null, legs(dayOfMonth, origin, destination)).seek(key, runs);
+        if (!directOnly && dayOfMonth >= 0 && dayOfMonth < DAYS) {
+            Map<String, Map<String, List<Flight>>> origins = byDay.get(dayOfMonth);
+            Map<String, List<Flight>> fromOrigin = origins.get(origin);
+            if (fromOrigin != null) {
+                for (Map.Entry<String, List<Flight>> stop : fromOrigin.entrySet()) {
+                    List<Flight> secondLegs = legs(dayOfMonth, stop.getKey(), destination);
+                    if (secondLegs.isEmpty()) continue;
+                    for (Flight first : stop.getValue()) {
+                        new Run(first, secondLegs).seek(key, runs);
+                    }
+                }
+            }
+        }
+        return new Iterator<ArrayList<Flight>>() {
+            @Override
+            public boolean hasNext() {
+                return !runs.isEmpty();
+            }
+
+            @Override
+            public ArrayList<Flight> next() {
+                Run run = runs.poll();
+                if (run == null) throw new NoSuchElementException();
+                ArrayList<Flight> itinerary = itinerary(run.first, run.legs.get(run.next), originCity,
+                        destinationCity);
+                if (++run.next < run.legs.size()) runs.add(run);
+                return itinerary;
+            }
+        };
+    }
+
+    /**
+     * Returns up to {@code limit} itineraries of {@link #after}
+     */
+    List<ArrayList<Flight>> searchAfter(String originCity, String destinationCity, boolean directOnly,
+                                        int dayOfMonth, Compare after, int limit) {
+        // limit comes from the user, so the page grows with the itineraries found
+        List<ArrayList<Flight>> page = new ArrayList<>();
+        Iterator<ArrayList<Flight>> itineraries = after(originCity, destinationCity, directOnly, dayOfMonth, after);
+        while (page.size() < limit && itineraries.hasNext()) {
+            page.add(itineraries.next());
+        }
+        return page;
+    }
+
+    /**
+     * Returns up to {@code limit} itineraries of at most {@code maxLegs}
+     * flights between the two cities on the given day, found by
+     * {@link RouteFinder}, with the end cities spelled the way the caller
+     * searched for them
+     */
+    List<ArrayList<Flight>> routes(String originCity, String destinationCity, int dayOfMonth, int maxLegs,
+                                   int limit) {
+        if (dayOfMonth < 0 || dayOfMonth >= DAYS) return new ArrayList<>();
+        List<List<Flight>> routes = new RouteFinder(byDay.get(dayOfMonth))
+                .find(key(originCity), key(destinationCity), maxLegs, limit);
+        List<ArrayList<Flight>> itineraries = new ArrayList<>(routes.size());
+        for (List<Flight> route : routes) {
+            ArrayList<Flight> itinerary = new ArrayList<>(route);
+            Flight first = itinerary.get(0);
+            itinerary.set(0, new Flight(first.fid, first.dayOfMonth, first.carrierId, first.flightNum,
+                    originCity, first.destCity, first.time, first.capacity, first.price));
+            Flight last = itinerary.get(itinerary.size() - 1);
+            itinerary.set(itinerary.size() - 1, new Flight(last.fid, last.dayOfMonth, last.carrierId,
+                    last.flightNum, last.originCity, destinationCity, last.time, last.capacity, last.price));
+            itineraries.add(itinerary);
+        }
+        return itineraries;
+    }
+
+    /*
+     * a direct itinerary when first is null, otherwise first then last, with the end cities spelled
+     * the way the caller searched for them
+     */
+    private static ArrayList<Flight> itinerary(Flight first, Flight last, String originCity,
+                                               String destinationCity) {
+        ArrayList<Flight> itinerary = new ArrayList<>(first == null ? 1 : 2);
+        if (first != null) {
+            itinerary.add(new Flight(first.fid, first.dayOfMonth, first.carrierId, first.flightNum,
+                    originCity, first.destCity, first.time, first.capacity, first.price));
+        }
+        itinerary.add(new Flight(last.fid, last.dayOfMonth, last.carrierId, last.flightNum,
+                first == null ? originCity : last.originCity, destinationCity, last.time, last.capacity,
+                last.price));
+        return itinerary;
+    }
+
+    private List<Flight> legs(int dayOfMonth, String origin, String destination) {
+        if (dayOfMonth < 0 || dayOfMonth >= DAYS) return Collections.emptyList();
+        Map<String, List<Flight>> fromOrigin = byDay.get(dayOfMonth).get(origin);
+        if (fromOrigin == null) return Collections.emptyList();
+        List<Flight> legs = fromOrigin.get(destination);
+        return legs == null ? Collections.<Flight>emptyList() : legs;
+    }
+
+    private static int totalTime(Flight[] itinerary) {
+        return itinerary[0].time + itinerary[1].time;
+    }
+
+    private static int compare(Flight[] a, Flight[] b) {
+        int totalA = totalTime(a);
+        int totalB = totalTime(b);
+        if (totalA != totalB) {
+            return Integer.compare(totalA, totalB);
+        } else if (a[0].fid != b[0].fid) {
+            return Integer.compare(a[0].fid, b[0].fid);
+        } else return Integer.compare(a[1].fid, b[1].fid);
+    }
+
+    /*
+     * itineraries that share their first leg, or the direct ones when first is null, in Compare order
+     */
+    private static final class Run implements Comparable<Run> {
+        final Flight first;
+        final List<Flight> legs;
+        int next;
+
+        Run(Flight first, List<Flight> legs) {
+            this.first = first;
+            this.legs = legs;
+        }
+
+        /*
+         * skips the itineraries at or before the key and joins the heap if any are left
+         */
+        void seek(Compare key, PriorityQueue<Run> runs) {
+            int low = 0;
+            int high = legs.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareAt(mid, key) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            next = low;
+            if (next < legs.size()) runs.add(this);
+        }
+
+        int compareAt(int index, Compare key) {
+            return compare(index, key.totalTime, key.fid, key.fid_2);
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return compare(next, other.totalTime(other.next), other.fid(other.next), other.fid2(other.next));
+        }
+
+        private int compare(int index, int totalTime, int fid, int fid2) {
+            int total = totalTime(index);
+            if (total != totalTime) return Integer.compare(total, totalTime);
+            int first = fid(index);
+            if (first != fid) return Integer.compare(first, fid);
+            return Integer.compare(fid2(index), fid2);
+        }
+
+        // the Compare key of the itinerary at index: total time, first fid, second fid or 0
+        private int totalTime(int index) {
+            return first == null ? legs.get(index).time : first.time + legs.get(index).time;
+        }
+
+        private int fid(int index) {
+            return first == null ? legs.get(index).fid : first.fid;
+        }
+
+        private int fid2(int index) {
+            return first == null ? 0 : legs.get(index).fid;
+        }
+    }
+
+    private static String key(String city) {
+        return city == null ? "" : city.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,264 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * TCP front end that serves many concurrent FlightService sessions from one
+ * JVM.
+ * <p>
+ * Every client connection is a session with its own Query, so it logs in and
+ * searches independently of the others, and runs the same commands as the
+ * REPL through {@link FlightService#execute}. Each text response is followed by
+ * an empty line so clients know where it ends; a session whose first byte is
+ * zero speaks the length-prefixed {@link BinaryProtocol} instead. A text
+ * command may be as long as a binary frame, {@link BinaryProtocol#MAX_FRAME};
+ * a longer line is answered with {@link #TOO_LONG} and the session is closed,
+ * so no client can grow its buffer without bound. Sessions run
+ * on a bounded pool of threads; connections beyond
+ * {@code flightservice.server.max_sessions} are turned away straight away. A
+ * separate limit,
+ * {@code flightservice.server.max_inflight}, caps how many commands run at
+ * once, and the connection pool is sized to match unless it is configured
+ * explicitly, so idle sessions do not hold database connections.
+ */
+class FlightServer implements Closeable {
+    static final String BUSY = "Server busy, try again later\n";
+    static final String TOO_LONG = "Error: command longer than " + BinaryProtocol.MAX_FRAME + " characters\n";
+
+    // settings of the sessions' connections
+    private final Properties configProps;
+    private final ServerSocket serverSocket;
+    private final ThreadPoolExecutor sessions;
+    private final Semaphore inflight;
+    private final int idleTimeoutMillis;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+
+    /**
+     * Creates a server from the {@code flightservice.server.*} settings in
+     * {@code configProps}, whose sessions connect with the rest of them.
+     */
+    static FlightServer fromConfig(Properties configProps) throws IOException {
+        int maxInflight = Integer.parseInt(configProps.getProperty("flightservice.server.max_inflight",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 4)));
+        Properties sessionProps = new Properties();
+        sessionProps.putAll(configProps);
+        if (sessionProps.getProperty("flightservice.pool.max_size") == null) {
+            // sessions borrow a connection per command instead of pinning one each
+            sessionProps.setProperty("flightservice.pool.max_size", String.valueOf(maxInflight));
+        }
+        return new FlightServer(sessionProps,
+                Integer.parseInt(configProps.getProperty("flightservice.server.port", "9090")),
+                Integer.parseInt(configProps.getProperty("flightservice.server.max_sessions", "1000")),
+                maxInflight,
+                Integer.parseInt(configProps.getProperty("flightservice.server.idle_timeout_ms", "600000")));
+    }
+
+    FlightServer(Properties configProps, int port, int maxSessions, int maxInflight, int idleTimeoutMillis)
+            throws IOException {
+        this.configProps = configProps;
+        this.serverSocket = new ServerSocket(port);
+        this.inflight = new Semaphore(maxInflight, true);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        AtomicInteger count = new AtomicInteger();
+        // no queue: a session either gets a thread right away or is turned away
+        this.sessions = new ThreadPoolExecutor(0, maxSessions, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "flight-session-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts clients until the server is closed
+     */
+    void serve() throws IOException {
+        while (!closed) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (SocketException ex) {
+                if (closed) return;
+                throw ex;
+            }
+            accepted.incrementAndGet();
+            try {
+                sessions.execute(() -> session(client));
+            } catch (RejectedExecutionException ex) {
+                rejected.incrementAndGet();
+                try (Socket busy = client) {
+                    busy.getOutputStream().write(BUSY.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ignored) {
+                    // the client is being turned away anyway
+                }
+            }
+        }
+    }
+
+    /*
+     * runs the commands of one client on its own Query until it quits or disconnects
+     */
+    private void session(Socket client) {
+        clients.add(client);
+        Query q = new Query();
+        try {
+            client.setSoTimeout(idleTimeoutMillis);
+            client.setTcpNoDelay(true);
+            BufferedInputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            q.openConnection(configProps);
+            q.prepareStatements();
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            if (first == 0) {
+                binarySession(q, new DataInputStream(in), new DataOutputStream(out));
+            } else if (first > 0) {
+                textSession(q, new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                        new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            }
+        } catch (Exception ex) {
+            // the client disconnected, timed out or the database was unreachable
+        } finally {
+            try {
+                q.closeConnection();
+            } catch (Exception ex) {
+                // the connection is discarded either way
+            }
+            clients.remove(client);
+            try {
+                client.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+        }
+    }
+
+    /*
+     * one REPL command per line, each response followed by an empty line
+     */
+    private void textSession(Query q, BufferedReader in, Writer out) throws IOException, InterruptedException {
+        StringBuilder line = new StringBuilder();
+        while (!closed && readLine(in, line)) {
+            if (line.length() > BinaryProtocol.MAX_FRAME) {
+                out.write(TOO_LONG);
+                out.write('\n');
+                out.flush();
+                break;
+            }
+            String command = line.toString();
+            String response;
+            inflight.acquire();
+            try {
+                commands.incrementAndGet();
+                response = FlightService.execute(q, command);
+            } finally {
+                inflight.release();
+            }
+            out.write(response);
+            if (!response.endsWith("\n")) out.write('\n');
+            out.write('\n');
+            out.flush();
+            if (response.equals("Goodbye\n")) break;
+        }
+    }
+
+    /*
+     * reads the next line into the builder like BufferedReader.readLine, ended by \n, \r or \r\n, but
+     * stops once it is longer than MAX_FRAME; returns false at the end of the stream
+     */
+    private static boolean readLine(BufferedReader in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c = in.read();
+        if (c < 0) return false;
+        while (c >= 0 && c != '\n' && c != '\r') {
+            line.append((char) c);
+            if (line.length() > BinaryProtocol.MAX_FRAME) return true;
+            c = in.read();
+        }
+        if (c == '\r') {
+            in.mark(1);
+            if (in.read() != '\n') in.reset();
+        }
+        return true;
+    }
+
+    /*
+     * length-prefixed binary frames, decoded in a buffer reused for the whole session
+     */
+    private void binarySession(Query q, DataInputStream in, DataOutputStream out)
+            throws IOException, InterruptedException {
+        ByteBuffer frame = ByteBuffer.allocate(256);
+        while (!closed && (frame = BinaryProtocol.readFrame(in, frame)) != null) {
+            String response;
+            inflight.acquire();
+            try {
+                commands.incrementAndGet();
+                response = BinaryProtocol.execute(q, frame);
+            } finally {
+                inflight.release();
+            }
+            BinaryProtocol.writeResponse(out, response);
+            out.flush();
+            if (response.equals("Goodbye\n")) break;
+        }
+    }
+
+    /**
+     * Stops accepting clients and disconnects the ones still connected
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+        sessions.shutdownNow();
+    }
+
+    int activeSessions() {
+        return sessions.getActiveCount();
+    }
+
+    long accepted() {
+        return accepted.get();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    long commands() {
+        return commands.get();
+    }
+
+    /**
+     * Number of commands waiting for an in-flight slot
+     */
+    int waiting() {
+        return inflight.getQueueLength();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FlightServer[port=%d sessions=%d/%d accepted=%d rejected=%d commands=%d waiting=%d]",
+                port(), activeSessions(), sessions.getMaximumPoolSize(), accepted(), rejected(), commands(),
+                waiting());
+    }
+}
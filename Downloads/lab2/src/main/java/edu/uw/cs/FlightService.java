@@ -2,107 +2,192 @@ package edu.uw.cs;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.*;
 import java.sql.*;
 
 public class FlightService {
 
+  /** Command parser of each thread, reused from one command to the next */
+  private static final ThreadLocal<CommandParser> parsers = ThreadLocal.withInitial(CommandParser::new);
+
   /**
    * Execute the specified command on the database query connection
    */
   public static String execute(Query q, String command) {
-    String[] tokens = tokenize(command.trim());
+    CommandParser tokens = parsers.get();
+    tokens.parse(command);
+    int count = tokens.count();
     String response;
 
     // empty input
-    if (tokens.length == 0) {
-      response = "Please enter a command";
+    if (count == 0) {
+      return "Please enter a command";
     }
 
-    // login
-    else if (tokens[0].equals("login")) {
-      if (tokens.length == 3) {
-        String username = tokens[1];
-        String password = tokens[2];
-        response = q.transaction_login(username, password);
-      } else {
-        response = "Error: Please provide a username and password";
-      }
-    }
+    switch (tokens.opcode()) {
+      // login
+      case BinaryProtocol.LOGIN:
+        if (count == 3) {
+          String username = tokens.string(1);
+          String password = tokens.string(2);
+          response = q.transaction_login(username, password);
+        } else {
+          response = "Error: Please provide a username and password";
+        }
+        break;
 
-    // create
-    else if (tokens[0].equals("create")) {
-      if (tokens.length == 4) {
-        String username = tokens[1];
-        String password = tokens[2];
-        int initAmount = Integer.parseInt(tokens[3]);
-        response = q.transaction_createCustomer(username, password, initAmount);
-      } else {
-        response = "Error: Please provide a username, password, and initial amount in the account";
-      }
-    }
+      // create
+      case BinaryProtocol.CREATE:
+        if (count == 4) {
+          String username = tokens.string(1);
+          String password = tokens.string(2);
+          try {
+            int initAmount = tokens.parseInt(3);
+            response = q.transaction_createCustomer(username, password, initAmount);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide a username, password, and initial amount in the account";
+        }
+        break;
 
-    // search
-    else if (tokens[0].equals("search")) {
-      if (tokens.length == 6) {
-        String originCity = tokens[1];
-        String destinationCity = tokens[2];
-        boolean direct = tokens[3].equals("1");
-        try {
-          int day = Integer.valueOf(tokens[4]);
-          int count = Integer.valueOf(tokens[5]);
-          response = q.transaction_search(originCity, destinationCity, direct, day, count);
-        } catch (NumberFormatException e) {
-          response = "Failed to parse integer";
+      // search
+      case BinaryProtocol.SEARCH:
+        if (count == 6) {
+          String originCity = tokens.string(1);
+          String destinationCity = tokens.string(2);
+          boolean direct = tokens.equals(3, "1");
+          try {
+            int day = tokens.parseInt(4);
+            int itineraries = tokens.parseInt(5);
+            response = q.transaction_search(originCity, destinationCity, direct, day, itineraries);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>";
         }
-      } else {
-        response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>";
-      }
-    }
+        break;
 
-    // book
-    else if (tokens[0].equals("book")) {
-      if (tokens.length == 2) {
-        int itinerary_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_book(itinerary_id);
-      } else {
-        response = "Error: Please provide an itinerary_id";
-      }
-    }
+      // paginated search
+      case BinaryProtocol.SEARCH_PAGE:
+        if (count == 6) {
+          String originCity = tokens.string(1);
+          String destinationCity = tokens.string(2);
+          boolean direct = tokens.equals(3, "1");
+          try {
+            int day = tokens.parseInt(4);
+            int pageSize = tokens.parseInt(5);
+            response = q.transaction_searchPage(originCity, destinationCity, direct, day, pageSize);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <page size>";
+        }
+        break;
 
-    // reservations
-    else if (tokens[0].equals("reservations")) {
-      response = q.transaction_reservations();
-    }
+      // next page of a paginated search
+      case BinaryProtocol.NEXT_PAGE:
+        if (count == 2) {
+          response = q.transaction_nextPage(tokens.string(1));
+        } else {
+          response = "Error: Please provide a page token";
+        }
+        break;
 
-    // pay
-    else if (tokens[0].equals("pay")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_pay(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+      // multi-hop route search
+      case BinaryProtocol.ROUTES:
+        if (count == 6) {
+          String originCity = tokens.string(1);
+          String destinationCity = tokens.string(2);
+          try {
+            int day = tokens.parseInt(3);
+            int maxLegs = tokens.parseInt(4);
+            int itineraries = tokens.parseInt(5);
+            response = q.transaction_routes(originCity, destinationCity, day, maxLegs, itineraries);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide all route parameters <origin_city> <destination_city> <date> <max legs> <nb itineraries>";
+        }
+        break;
 
-    // cancel
-    else if (tokens[0].equals("cancel")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_cancel(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+      // book
+      case BinaryProtocol.BOOK:
+        if (count == 2) {
+          try {
+            int itinerary_id = tokens.parseInt(1);
+            response = q.transaction_book(itinerary_id);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide an itinerary_id";
+        }
+        break;
 
-    // quit
-    else if (tokens[0].equals("quit")) {
-      response = "Goodbye\n";
-    }
+      // reservations
+      case BinaryProtocol.RESERVATIONS:
+        response = q.transaction_reservations();
+        break;
 
-    // unknown command
-    else {
-      response = "Error: unrecognized command '" + tokens[0] + "'";
+      // pay
+      case BinaryProtocol.PAY:
+        if (count == 2) {
+          try {
+            int reservation_id = tokens.parseInt(1);
+            response = q.transaction_pay(reservation_id);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide a reservation_id";
+        }
+        break;
+
+      // cancel
+      case BinaryProtocol.CANCEL:
+        if (count == 2) {
+          try {
+            int reservation_id = tokens.parseInt(1);
+            response = q.transaction_cancel(reservation_id);
+          } catch (NumberFormatException e) {
+            response = "Failed to parse integer";
+          }
+        } else {
+          response = "Error: Please provide a reservation_id";
+        }
+        break;
+
+      // quit
+      case BinaryProtocol.QUIT:
+        response = "Goodbye\n";
+        break;
+
+      // session token
+      case BinaryProtocol.TOKEN:
+        response = q.transaction_sessionToken();
+        break;
+
+      // resume a session
+      case BinaryProtocol.RESUME:
+        if (count == 2) {
+          response = q.transaction_resume(tokens.string(1));
+        } else {
+          response = "Error: Please provide a session token";
+        }
+        break;
+
+      // revoke session tokens
+      case BinaryProtocol.REVOKE:
+        response = q.transaction_revokeSessions();
+        break;
+
+      // unknown command
+      default:
+        response = "Error: unrecognized command '" + tokens.string(0) + "'";
     }
 
     return response;
@@ -110,12 +195,17 @@ public class FlightService {
 
   /**
    * Establishes an application-to-database connection and runs the Flights
-   * application REPL
+   * application REPL, or with {@code --server [port]} serves sessions over TCP
    * 
    * @param args
    * @throws IOException
    */
   public static void main(String[] args) throws IOException, SQLException {
+    if (args.length > 0 && args[0].equals("--server")) {
+      serve(args.length > 1 ? args[1] : null);
+      return;
+    }
+
     /* prepare the database connection stuff */
     Query q = new Query();
     q.openConnection();
@@ -124,6 +214,22 @@ public class FlightService {
     q.closeConnection();
   }
 
+  /**
+   * Runs the multi-session TCP server until the process is stopped
+   * 
+   * @param port port to listen on, or null for the configured one
+   * @throws IOException
+   */
+  private static void serve(String port) throws IOException {
+    Properties configProps = Query.settings();
+    if (port != null) {
+      configProps.setProperty("flightservice.server.port", port);
+    }
+    FlightServer server = FlightServer.fromConfig(configProps);
+    System.out.println("Serving flights on port " + server.port());
+    server.serve();
+  }
+
   /**
    * REPL (Read-Execute-Print-Loop) for Flights application for the specified
    * application-to-database connection
@@ -138,11 +244,17 @@ public class FlightService {
       System.out.println(" *** Please enter one of the following commands *** ");
       System.out.println("> create <username> <password> <initial amount>");
       System.out.println("> login <username> <password>");
+      System.out.println("> resume <session token>");
       System.out.println("> search <origin city> <destination city> <direct> <day of the month> <num itineraries>");
+      System.out.println("> searchpage <origin city> <destination city> <direct> <day of the month> <page size>");
+      System.out.println("> next <page token>");
+      System.out.println("> routes <origin city> <destination city> <day of the month> <max legs> <num itineraries>");
       System.out.println("> book <itinerary id>");
       System.out.println("> pay <reservation id>");
       System.out.println("> reservations");
       System.out.println("> cancel <reservation id>");
+      System.out.println("> token");
+      System.out.println("> revoke");
       System.out.println("> quit");
 
       // read an input command from the REPL
@@ -158,20 +270,4 @@ public class FlightService {
       }
     }
   }
-
-  /**
-   * Tokenize a string into a string array
-   */
-  private static String[] tokenize(String command) {
-    String regex = "\"([^\"]*)\"|(\\S+)";
-    Matcher m = Pattern.compile(regex).matcher(command);
-    List<String> tokens = new ArrayList<>();
-    while (m.find()) {
-      if (m.group(1) != null)
-        tokens.add(m.group(1));
-      else
-        tokens.add(m.group(2));
-    }
-    return tokens.toArray(new String[0]);
-  }
 }
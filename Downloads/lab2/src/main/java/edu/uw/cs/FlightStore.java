@@ -0,0 +1,202 @@
+package edu.uw.cs;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Storage operations behind one Query session.
+ * <p>
+ * Query keeps the session state and the rules of each command; a store only
+ * reads and writes rows. Every store has the same transaction model as the
+ * database: {@link #begin} starts a transaction at the isolation of the given
+ * profile, the operations after it see and lock rows as SQL Server would, and
+ * {@link #commit} or {@link #rollback} ends it. Contention failures are
+ * reported as SQLExceptions that {@link RetryPolicy#isRetryable} recognises,
+ * so Query retries them the same way whichever store is in use. Operations
+ * called outside a transaction run on their own.
+ * <p>
+ * {@link JdbcFlightStore} talks to SQL Server; {@link InMemoryFlightStore}
+ * keeps everything in the JVM.
+ */
+interface FlightStore {
+    /**
+     * Starts a transaction with the isolation of the given profile
+     */
+    void begin(TransactionProfile profile) throws SQLException;
+
+    void commit() throws SQLException;
+
+    /**
+     * Undoes the current transaction; does nothing outside of one
+     */
+    void rollback() throws SQLException;
+
+    /**
+     * Prepares whatever the store needs before its first transaction
+     */
+    void prepare() throws SQLException;
+
+    /**
+     * Releases the resources of this session
+     */
+    void close() throws SQLException;
+
+    /**
+     * Deletes all users, itineraries and reservations and frees every seat
+     */
+    void clear() throws SQLException;
+
+    /**
+     * Inserts a user
+     *
+     * @throws SQLException if the username is taken
+     */
+    void createUser(String username, byte[] passHash, byte[] passSalt, int balance) throws SQLException;
+
+    /**
+     * Returns the user, or null if there is none with that name
+     */
+    User getUser(String username) throws SQLException;
+
+    /**
+     * Returns the user's balance, locking it until the end of the transaction
+     */
+    int getBalanceForUpdate(String username) throws SQLException;
+
+    void setBalance(String username, int balance) throws SQLException;
+
+    void addBalance(String username, int amount) throws SQLException;
+
+    /**
+     * Returns up to {@code numberOfItineraries} direct and, unless
+     * {@code directFlight} is set, one-stop itineraries, in Compare order
+     */
+    List<ArrayList<Flight>> search(String originCity, String destinationCity, boolean directFlight, int dayOfMonth,
+                                   int numberOfItineraries) throws SQLException;
+
+    /**
+     * Returns up to {@code limit} direct and, unless {@code directFlight} is
+     * set, one-stop itineraries that come after the {@code after} key, or from
+     * the first one if it is null, in pure Compare order: unlike
+     * {@link #search}, direct flights are not preferred
+     */
+    List<ArrayList<Flight>> searchAfter(String originCity, String destinationCity, boolean directFlight,
+                                        int dayOfMonth, Compare after, int limit) throws SQLException;
+
+    /**
+     * Returns up to {@code limit} itineraries of at most {@code maxLegs}
+     * flights on the given day, fastest first, ties broken by their fids in
+     * turn
+     *
+     * @see RouteFinder
+     */
+    List<ArrayList<Flight>> routes(String originCity, String destinationCity, int dayOfMonth, int maxLegs,
+                                   int limit) throws SQLException;
+
+    /**
+     * Takes a seat on every leg of the itinerary, or on none of them if any
+     * leg is full
+     *
+     * @return whether every leg had room
+     */
+    boolean reserveSeats(List<Flight> itinerary) throws SQLException;
+
+    /**
+     * Gives back the seat the reservation holds on each leg of its itinerary
+     */
+    void releaseSeats(Reservation reservation) throws SQLException;
+
+    /**
+     * Whether the user holds a reservation on the given day, locking the
+     * user's reservations until the end of the transaction
+     */
+    boolean hasReservationOnDay(String username, int dayOfMonth) throws SQLException;
+
+    /**
+     * The users among {@code usernames} who hold a reservation on the given
+     * day, locking the reservations of all of them until the end of the
+     * transaction as {@link #hasReservationOnDay} does for one user
+     */
+    Set<String> reservedOnDay(Collection<String> usernames, int dayOfMonth) throws SQLException;
+
+    /**
+     * Seats left on each of the flights by fid, locking them until the end of
+     * the transaction
+     */
+    Map<Integer, Integer> seatsLeftForUpdate(Collection<Flight> flights) throws SQLException;
+
+    /**
+     * Takes the given number of seats on each flight by fid; the flights must
+     * have been locked by {@link #seatsLeftForUpdate} in this transaction
+     */
+    void takeSeats(Map<Integer, Integer> seats) throws SQLException;
+
+    /**
+     * Finds or creates the itinerary and inserts an unpaid reservation of it
+     * for the user
+     *
+     * @return the new reservation id
+     */
+    int book(String username, List<Flight> itinerary) throws SQLException;
+
+    /**
+     * Returns the user's reservation with the given id, locking it until the
+     * end of the transaction, or null if the user has no such reservation
+     */
+    Reservation getReservationForUpdate(int reservationId, String username) throws SQLException;
+
+    void setPaid(int reservationId) throws SQLException;
+
+    void deleteReservation(int reservationId) throws SQLException;
+
+    /**
+     * Returns the user's reservations ordered by id
+     */
+    List<Reservation> getReservations(String username) throws SQLException;
+
+    /**
+     * Number of statements this session has sent to the database, or of
+     * operations it has run on an in-memory store
+     */
+    long statements();
+
+    /**
+     * A row of the Users table
+     */
+    final class User {
+        final String username;
+        final byte[] passHash;
+        final byte[] passSalt;
+        final int balance;
+
+        User(String username, byte[] passHash, byte[] passSalt, int balance) {
+            this.username = username;
+            this.passHash = passHash;
+            this.passSalt = passSalt;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * A reservation together with the itinerary it books
+     */
+    final class Reservation {
+        final int id;
+        final boolean paid;
+        // flights of the itinerary in order, and their fids
+        final List<Flight> flights;
+        final int[] fids;
+        final int totalPrice;
+
+        Reservation(int id, boolean paid, List<Flight> flights, int totalPrice) {
+            this.id = id;
+            this.paid = paid;
+            this.flights = flights;
+            this.fids = new int[flights.size()];
+            for (int i = 0; i < fids.length; i++) {
+                fids[i] = flights.get(i).fid;
+            }
+            this.totalPrice = totalPrice;
+        }
+    }
+}
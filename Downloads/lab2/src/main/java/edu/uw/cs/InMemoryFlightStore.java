@@ -0,0 +1,437 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FlightStore session over the shared {@link InMemoryStorage} tables.
+ * <p>
+ * Transactions follow the locking the SQL statements of
+ * {@link JdbcFlightStore} get from SQL Server. A read-write transaction keeps
+ * every user and flight lock it takes until it commits or rolls back, and
+ * records an undo entry for each write so a rollback restores the rows it
+ * touched. Read-only transactions and operations outside a transaction give
+ * their locks back as soon as the operation is done, like locking read
+ * committed. A transaction locks its user before any flight and flights in
+ * stripe order; a lock that cannot be had within
+ * {@code flightservice.memory.lock_timeout_ms} fails the operation with a
+ * retryable lock timeout, the same error SQL Server reports.
+ * <p>
+ * Locks are counted per session, not per thread, so a session must not be
+ * used by two threads at once; that is already true of Query.
+ */
+class InMemoryFlightStore implements FlightStore {
+    private static final int LOCK_TIMEOUT = 1222;
+
+    private final InMemoryStorage storage;
+    // locks this session holds
+    private final Set<Semaphore> held = Collections.newSetFromMap(new IdentityHashMap<>());
+    // undoes the writes of the current transaction, newest first
+    private final Deque<Runnable> undo = new ArrayDeque<>();
+    private boolean inTransaction;
+    // read-write transactions keep their locks until they end
+    private boolean holdLocks;
+    // operations this session has run
+    private long statements;
+
+    InMemoryFlightStore(InMemoryStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void begin(TransactionProfile profile) {
+        inTransaction = true;
+        holdLocks = profile == TransactionProfile.READ_WRITE;
+    }
+
+    @Override
+    public void commit() {
+        undo.clear();
+        end();
+    }
+
+    @Override
+    public void rollback() {
+        while (!undo.isEmpty()) {
+            undo.pollFirst().run();
+        }
+        end();
+    }
+
+    @Override
+    public void prepare() {
+        // nothing to prepare
+    }
+
+    @Override
+    public void close() {
+        rollback();
+    }
+
+    @Override
+    public void clear() throws SQLException {
+        try {
+            for (Semaphore lock : storage.allLocks()) {
+                lock(lock);
+            }
+            storage.reset();
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void createUser(String username, byte[] passHash, byte[] passSalt, int balance) throws SQLException {
+        String key = InMemoryStorage.userKey(username);
+        try {
+            lock(storage.userLock(key));
+            InMemoryStorage.UserRow row = new InMemoryStorage.UserRow(username, passHash, passSalt, balance);
+            if (storage.users.putIfAbsent(key, row) != null) {
+                throw new SQLIntegrityConstraintViolationException("Duplicate username " + username, "23000");
+            }
+            undo.push(() -> storage.users.remove(key, row));
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public User getUser(String username) throws SQLException {
+        try {
+            InMemoryStorage.UserRow row = lockUser(username);
+            return row == null ? null : new User(row.username, row.passHash, row.passSalt, row.balance);
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public int getBalanceForUpdate(String username) throws SQLException {
+        try {
+            return existingUser(username).balance;
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void setBalance(String username, int balance) throws SQLException {
+        try {
+            InMemoryStorage.UserRow row = existingUser(username);
+            int previous = row.balance;
+            row.balance = balance;
+            undo.push(() -> row.balance = previous);
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void addBalance(String username, int amount) throws SQLException {
+        try {
+            InMemoryStorage.UserRow row = existingUser(username);
+            row.balance += amount;
+            undo.push(() -> row.balance -= amount);
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public long statements() {
+        return statements;
+    }
+
+    @Override
+    public List<ArrayList<Flight>> search(String originCity, String destinationCity, boolean directFlight,
+                                          int dayOfMonth, int numberOfItineraries) {
+        return storage.index.search(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+    }
+
+    @Override
+    public List<ArrayList<Flight>> searchAfter(String originCity, String destinationCity, boolean directFlight,
+                                               int dayOfMonth, Compare after, int limit) {
+        return storage.index.searchAfter(originCity, destinationCity, directFlight, dayOfMonth, after, limit);
+    }
+
+    @Override
+    public List<ArrayList<Flight>> routes(String originCity, String destinationCity, int dayOfMonth, int maxLegs,
+                                          int limit) {
+        return storage.index.routes(originCity, destinationCity, dayOfMonth, maxLegs, limit);
+    }
+
+    @Override
+    public boolean reserveSeats(List<Flight> itinerary) throws SQLException {
+        try {
+            List<Flight> legs = new ArrayList<>(itinerary);
+            legs.sort(Comparator.comparingInt((Flight f) -> storage.flightStripe(f.fid)));
+            List<InMemoryStorage.Seats> ledger = new ArrayList<>(legs.size());
+            for (Flight leg : legs) {
+                lock(storage.flightLock(leg.fid));
+                InMemoryStorage.Seats seats = storage.seats(leg);
+                if (seats.booked >= seats.capacity) return false;
+                ledger.add(seats);
+            }
+            for (InMemoryStorage.Seats seats : ledger) {
+                seats.booked++;
+                undo.push(() -> seats.booked--);
+            }
+            return true;
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void releaseSeats(Reservation reservation) throws SQLException {
+        try {
+            List<Integer> fids = new ArrayList<>(reservation.fids.length);
+            for (int fid : reservation.fids) {
+                fids.add(fid);
+            }
+            fids.sort(Comparator.comparingInt(storage::flightStripe));
+            for (int fid : fids) {
+                lock(storage.flightLock(fid));
+                InMemoryStorage.Seats seats = storage.seats.get(fid);
+                if (seats != null && seats.booked > 0) {
+                    seats.booked--;
+                    undo.push(() -> seats.booked++);
+                }
+            }
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public boolean hasReservationOnDay(String username, int dayOfMonth) throws SQLException {
+        try {
+            InMemoryStorage.UserRow row = lockUser(username);
+            if (row == null) return false;
+            for (InMemoryStorage.ReservationRow reservation : row.reservations.values()) {
+                if (reservation.itinerary.day == dayOfMonth) return true;
+            }
+            return false;
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public Set<String> reservedOnDay(Collection<String> usernames, int dayOfMonth) throws SQLException {
+        try {
+            List<String> ordered = new ArrayList<>(usernames);
+            ordered.sort(Comparator.comparingInt(
+                    (String username) -> storage.userStripe(InMemoryStorage.userKey(username))));
+            Set<String> reserved = new HashSet<>();
+            for (String username : ordered) {
+                InMemoryStorage.UserRow row = lockUser(username);
+                if (row == null) continue;
+                for (InMemoryStorage.ReservationRow reservation : row.reservations.values()) {
+                    if (reservation.itinerary.day == dayOfMonth) {
+                        reserved.add(username);
+                        break;
+                    }
+                }
+            }
+            return reserved;
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public Map<Integer, Integer> seatsLeftForUpdate(Collection<Flight> flights) throws SQLException {
+        try {
+            List<Flight> legs = new ArrayList<>(flights);
+            legs.sort(Comparator.comparingInt((Flight f) -> storage.flightStripe(f.fid)));
+            Map<Integer, Integer> left = new HashMap<>();
+            for (Flight leg : legs) {
+                lock(storage.flightLock(leg.fid));
+                InMemoryStorage.Seats seats = storage.seats(leg);
+                left.put(leg.fid, seats.capacity - seats.booked);
+            }
+            return left;
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void takeSeats(Map<Integer, Integer> seats) throws SQLException {
+        try {
+            for (Map.Entry<Integer, Integer> take : seats.entrySet()) {
+                lock(storage.flightLock(take.getKey()));
+                InMemoryStorage.Seats ledger = storage.seats.get(take.getKey());
+                int count = take.getValue();
+                if (ledger == null || ledger.booked + count > ledger.capacity) {
+                    // the CHECK constraint of FlightSeats
+                    throw new SQLIntegrityConstraintViolationException("No seats left on " + take.getKey(),
+                            "23000");
+                }
+                ledger.booked += count;
+                undo.push(() -> ledger.booked -= count);
+            }
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public int book(String username, List<Flight> itinerary) throws SQLException {
+        try {
+            InMemoryStorage.UserRow owner = lockUser(username);
+            if (owner == null) {
+                throw new SQLIntegrityConstraintViolationException("No user " + username, "23000");
+            }
+            InMemoryStorage.ReservationRow reservation = new InMemoryStorage.ReservationRow(
+                    storage.lastReservationId.incrementAndGet(), owner, storage.itinerary(itinerary));
+            owner.reservations.put(reservation.id, reservation);
+            storage.reservations.put(reservation.id, reservation);
+            undo.push(() -> {
+                owner.reservations.remove(reservation.id);
+                storage.reservations.remove(reservation.id, reservation);
+            });
+            return reservation.id;
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public Reservation getReservationForUpdate(int reservationId, String username) throws SQLException {
+        try {
+            InMemoryStorage.UserRow row = lockUser(username);
+            if (row == null) return null;
+            InMemoryStorage.ReservationRow reservation = row.reservations.get(reservationId);
+            return reservation == null ? null : snapshot(reservation);
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void setPaid(int reservationId) throws SQLException {
+        try {
+            InMemoryStorage.ReservationRow reservation = lockReservation(reservationId);
+            if (reservation == null || reservation.paid) return;
+            reservation.paid = true;
+            undo.push(() -> reservation.paid = false);
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public void deleteReservation(int reservationId) throws SQLException {
+        try {
+            InMemoryStorage.ReservationRow reservation = lockReservation(reservationId);
+            if (reservation == null) return;
+            reservation.owner.reservations.remove(reservationId);
+            storage.reservations.remove(reservationId, reservation);
+            undo.push(() -> {
+                reservation.owner.reservations.put(reservationId, reservation);
+                storage.reservations.put(reservationId, reservation);
+            });
+        } finally {
+            done();
+        }
+    }
+
+    @Override
+    public List<Reservation> getReservations(String username) throws SQLException {
+        try {
+            InMemoryStorage.UserRow row = lockUser(username);
+            if (row == null) return Collections.emptyList();
+            List<Reservation> reservations = new ArrayList<>(row.reservations.size());
+            for (InMemoryStorage.ReservationRow reservation : row.reservations.values()) {
+                reservations.add(snapshot(reservation));
+            }
+            return reservations;
+        } finally {
+            done();
+        }
+    }
+
+    /*
+     * locks the stripe of a username and returns its row, or null if there is none
+     */
+    private InMemoryStorage.UserRow lockUser(String username) throws SQLException {
+        String key = InMemoryStorage.userKey(username);
+        lock(storage.userLock(key));
+        return storage.users.get(key);
+    }
+
+    /*
+     * like lockUser, but a missing user is an error, as reading a column of an empty result set is
+     */
+    private InMemoryStorage.UserRow existingUser(String username) throws SQLException {
+        InMemoryStorage.UserRow row = lockUser(username);
+        if (row == null) throw new SQLException("No user " + username);
+        return row;
+    }
+
+    /*
+     * locks the owner of a reservation and returns the reservation, or null if it no longer exists
+     */
+    private InMemoryStorage.ReservationRow lockReservation(int reservationId) throws SQLException {
+        InMemoryStorage.ReservationRow reservation = storage.reservations.get(reservationId);
+        if (reservation == null) return null;
+        lock(storage.userLock(InMemoryStorage.userKey(reservation.owner.username)));
+        // it may have been deleted while this session waited for the lock
+        return reservation.owner.reservations.get(reservationId) == reservation ? reservation : null;
+    }
+
+    private Reservation snapshot(InMemoryStorage.ReservationRow reservation) {
+        InMemoryStorage.ItineraryRow itinerary = reservation.itinerary;
+        List<Flight> flights = new ArrayList<>(itinerary.fids.length);
+        for (int fid : itinerary.fids) {
+            flights.add(storage.flights.get(fid));
+        }
+        return new Reservation(reservation.id, reservation.paid, flights, itinerary.totalPrice);
+    }
+
+    /*
+     * takes a lock unless this session already holds it
+     */
+    private void lock(Semaphore lock) throws SQLException {
+        if (held.contains(lock)) return;
+        boolean acquired;
+        try {
+            acquired = lock.tryAcquire(storage.lockTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            throw new SQLTransactionRollbackException("Lock request time out period exceeded.", "40001",
+                    LOCK_TIMEOUT);
+        }
+        held.add(lock);
+    }
+
+    /*
+     * ends an operation: only read-write transactions keep their locks, and only transactions
+     * can undo their writes
+     */
+    private void done() {
+        statements++;
+        if (!holdLocks) unlockAll();
+        if (!inTransaction) undo.clear();
+    }
+
+    private void end() {
+        unlockAll();
+        inTransaction = false;
+        holdLocks = false;
+    }
+
+    private void unlockAll() {
+        for (Semaphore lock : held) {
+            lock.release();
+        }
+        held.clear();
+    }
+}
@@ -0,0 +1,296 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide tables of the in-memory storage engine, shared by every
+ * {@link InMemoryFlightStore} session.
+ * <p>
+ * Flights are loaded once, either from the database or from the CSV file
+ * named by {@code flightservice.memory.flights_csv}, and never change; users,
+ * itineraries, reservations and seat counts live only in the JVM. Rows are
+ * guarded by two arrays of striped locks, one for users and one for flights:
+ * a user's balance and reservations belong to the stripe of the username and
+ * a flight's seat count to the stripe of its fid. Usernames are compared
+ * case-insensitively, the same way the default SQL Server collation does.
+ * <p>
+ * The CSV file has one non-canceled flight per line in the column order of
+ * {@link #LOAD_FLIGHTS}: fid, day_of_month, carrier_id, flight_num,
+ * origin_city, dest_city, actual_time, capacity, price, optionally followed by
+ * canceled. Blank lines, lines starting with '#' and a header line starting
+ * with "fid" are skipped.
+ */
+class InMemoryStorage {
+    private static final String LOAD_FLIGHTS = "SELECT fid, day_of_month, carrier_id, flight_num, origin_city, " +
+            "dest_city, actual_time, capacity, price FROM Flights WHERE canceled = 0";
+
+    // shared instance, loaded by the first session that opens it
+    private static InMemoryStorage shared;
+
+    // non-canceled flights by fid; never written after construction
+    final Map<Integer, Flight> flights;
+    final FlightIndex index;
+    final long lockTimeoutMillis;
+
+    final ConcurrentHashMap<String, UserRow> users = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<Integer, ReservationRow> reservations = new ConcurrentHashMap<>();
+    // itineraries by the fids of their legs in order
+    final ConcurrentHashMap<List<Integer>, ItineraryRow> itineraries = new ConcurrentHashMap<>();
+    // seat ledger, one row per flight that has been booked at least once
+    final ConcurrentHashMap<Integer, Seats> seats = new ConcurrentHashMap<>();
+    final AtomicInteger lastReservationId = new AtomicInteger();
+    final AtomicInteger lastItineraryId = new AtomicInteger();
+
+    private final Semaphore[] userLocks;
+    private final Semaphore[] flightLocks;
+
+    /**
+     * Returns the process-wide engine, loading its flights with the
+     * {@code flightservice.memory.*} settings in {@code configProps} the first
+     * time it is requested.
+     */
+    static synchronized InMemoryStorage shared(Properties configProps) throws IOException, SQLException {
+        if (shared == null) {
+            String csv = configProps.getProperty("flightservice.memory.flights_csv");
+            Collection<Flight> flights;
+            if (csv != null) {
+                flights = readCsv(csv);
+            } else {
+                try (Connection conn = DriverManager.getConnection(JdbcFlightStore.connectionUrl(configProps))) {
+                    flights = readDatabase(conn);
+                }
+            }
+            shared = new InMemoryStorage(flights,
+                    Integer.parseInt(configProps.getProperty("flightservice.memory.lock_stripes", "1024")),
+                    Long.parseLong(configProps.getProperty("flightservice.memory.lock_timeout_ms", "2000")));
+        }
+        return shared;
+    }
+
+    InMemoryStorage(Collection<Flight> flights, int lockStripes, long lockTimeoutMillis) {
+        Map<Integer, Flight> byFid = new HashMap<>();
+        for (Flight flight : flights) {
+            byFid.put(flight.fid, flight);
+        }
+        this.flights = Collections.unmodifiableMap(byFid);
+        this.index = new FlightIndex(byFid.values());
+        this.lockTimeoutMillis = lockTimeoutMillis;
+        // a power of two so a stripe is picked with a mask
+        int stripes = lockStripes <= 1 ? 1 : Integer.highestOneBit(lockStripes - 1) << 1;
+        userLocks = new Semaphore[stripes];
+        flightLocks = new Semaphore[stripes];
+        for (int i = 0; i < stripes; i++) {
+            userLocks[i] = new Semaphore(1);
+            flightLocks[i] = new Semaphore(1);
+        }
+    }
+
+    /**
+     * Reads every non-canceled flight through the given connection
+     */
+    static List<Flight> readDatabase(Connection conn) throws SQLException {
+        List<Flight> flights = new ArrayList<>();
+        try (Statement statement = conn.createStatement()) {
+            statement.setFetchSize(1000);
+            try (ResultSet results = statement.executeQuery(LOAD_FLIGHTS)) {
+                while (results.next()) {
+                    flights.add(Flight.read(results, 1));
+                }
+            }
+        }
+        return flights;
+    }
+
+    /**
+     * Reads the non-canceled flights of a CSV file in the format described
+     * above
+     */
+    static List<Flight> readCsv(String path) throws IOException {
+        List<Flight> flights = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(path),
+                StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("fid")) continue;
+                String[] columns = line.split(",", -1);
+                if (columns.length != 9 && columns.length != 10) {
+                    throw new IOException(path + ":" + lineNumber + ": expected 9 or 10 columns");
+                }
+                try {
+                    if (columns.length == 10 && Integer.parseInt(columns[9].trim()) != 0) continue;
+                    flights.add(new Flight(Integer.parseInt(columns[0].trim()), Integer.parseInt(columns[1].trim()),
+                            columns[2].trim(), columns[3].trim(), columns[4].trim(), columns[5].trim(),
+                            Integer.parseInt(columns[6].trim()), Integer.parseInt(columns[7].trim()),
+                            Integer.parseInt(columns[8].trim())));
+                } catch (NumberFormatException ex) {
+                    throw new IOException(path + ":" + lineNumber + ": " + ex.getMessage(), ex);
+                }
+            }
+        }
+        return flights;
+    }
+
+    /**
+     * Key of a username in {@link #users}
+     */
+    static String userKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    Semaphore userLock(String userKey) {
+        return userLocks[userStripe(userKey)];
+    }
+
+    /**
+     * Index of the lock of a user; transactions that lock several users lock
+     * them in stripe order
+     */
+    int userStripe(String userKey) {
+        return spread(userKey.hashCode()) & (userLocks.length - 1);
+    }
+
+    Semaphore flightLock(int fid) {
+        return flightLocks[flightStripe(fid)];
+    }
+
+    /**
+     * Index of the lock of a flight; transactions lock flights in stripe order
+     */
+    int flightStripe(int fid) {
+        return spread(fid) & (flightLocks.length - 1);
+    }
+
+    /**
+     * Every lock, users first, each array in stripe order
+     */
+    List<Semaphore> allLocks() {
+        List<Semaphore> all = new ArrayList<>(userLocks.length + flightLocks.length);
+        all.addAll(Arrays.asList(userLocks));
+        all.addAll(Arrays.asList(flightLocks));
+        return all;
+    }
+
+    /**
+     * Returns the seat ledger row of a flight, creating it on first use
+     */
+    Seats seats(Flight flight) {
+        return seats.computeIfAbsent(flight.fid, fid -> {
+            Flight stored = flights.get(fid);
+            return new Seats((stored != null ? stored : flight).capacity);
+        });
+    }
+
+    /**
+     * Returns the itinerary row of the given legs, creating it on first use.
+     * Like an IDENTITY column, an id is never handed out twice even if the
+     * booking that created the row rolls back; the row itself is harmless
+     * since itineraries are only reached through reservations.
+     */
+    ItineraryRow itinerary(List<Flight> legs) {
+        int[] fids = new int[legs.size()];
+        Integer[] key = new Integer[legs.size()];
+        int totalPrice = 0;
+        for (int i = 0; i < fids.length; i++) {
+            fids[i] = legs.get(i).fid;
+            key[i] = fids[i];
+            totalPrice += legs.get(i).price;
+        }
+        int price = totalPrice;
+        return itineraries.computeIfAbsent(Arrays.asList(key), k -> new ItineraryRow(
+                lastItineraryId.incrementAndGet(), fids, price, legs.get(0).dayOfMonth));
+    }
+
+    /**
+     * Deletes all users, itineraries and reservations, frees every seat and
+     * restarts the ids at 1; the caller holds every lock
+     */
+    void reset() {
+        users.clear();
+        reservations.clear();
+        itineraries.clear();
+        seats.clear();
+        lastReservationId.set(0);
+        lastItineraryId.set(0);
+    }
+
+    /*
+     * spreads the low bits of a hash so neighbouring fids and similar names land on different stripes
+     */
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * A row of Users, guarded by the lock of its stripe
+     */
+    static final class UserRow {
+        final String username;
+        final byte[] passHash;
+        final byte[] passSalt;
+        int balance;
+        // reservations of this user by id
+        final TreeMap<Integer, ReservationRow> reservations = new TreeMap<>();
+
+        UserRow(String username, byte[] passHash, byte[] passSalt, int balance) {
+            this.username = username;
+            this.passHash = passHash;
+            this.passSalt = passSalt;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * A row of Itineraries; immutable
+     */
+    static final class ItineraryRow {
+        final int id;
+        // flights of the itinerary in order; never written
+        final int[] fids;
+        final int totalPrice;
+        final int day;
+
+        ItineraryRow(int id, int[] fids, int totalPrice, int day) {
+            this.id = id;
+            this.fids = fids;
+            this.totalPrice = totalPrice;
+            this.day = day;
+        }
+    }
+
+    /**
+     * A row of Reservations, guarded by the lock of its owner
+     */
+    static final class ReservationRow {
+        final int id;
+        final UserRow owner;
+        final ItineraryRow itinerary;
+        boolean paid;
+
+        ReservationRow(int id, UserRow owner, ItineraryRow itinerary) {
+            this.id = id;
+            this.owner = owner;
+            this.itinerary = itinerary;
+        }
+    }
+
+    /**
+     * A row of FlightSeats, guarded by the lock of its flight
+     */
+    static final class Seats {
+        final int capacity;
+        int booked;
+
+        Seats(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
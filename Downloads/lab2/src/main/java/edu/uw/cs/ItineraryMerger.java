@@ -0,0 +1,47 @@
+package edu.uw.cs;
+
+import java.util.*;
+
+/**
+ * Two-way merge of the sorted direct itineraries with a sorted stream of
+ * one-stop itineraries, keeping at most limit results
+ */
+class ItineraryMerger {
+    private final List<ArrayList<Flight>> direct;
+    private final List<ArrayList<Flight>> merged;
+    private final int limit;
+    private int nextDirect;
+
+    public ItineraryMerger(List<ArrayList<Flight>> direct, int limit) {
+        this.direct = direct;
+        this.limit = limit;
+        // limit comes from the user, so the list grows with what is actually merged
+        this.merged = new ArrayList<>();
+    }
+
+    /*
+     * true once limit itineraries have been accepted, including the direct ones still pending
+     */
+    public boolean isFull() {
+        return merged.size() + (direct.size() - nextDirect) >= limit;
+    }
+
+    /*
+     * adds the next itinerary of the sorted stream, returns false if it did not make the cut
+     */
+    public boolean offer(ArrayList<Flight> itinerary) {
+        if (isFull()) return false;
+        while (nextDirect < direct.size() && Compare.compare(direct.get(nextDirect), itinerary) < 0) {
+            merged.add(direct.get(nextDirect++));
+        }
+        merged.add(itinerary);
+        return true;
+    }
+
+    public List<ArrayList<Flight>> finish() {
+        while (nextDirect < direct.size() && merged.size() < limit) {
+            merged.add(direct.get(nextDirect++));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,194 @@
+package edu.uw.cs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Writes flights, itineraries and reservations in the output format of the
+ * FlightService commands.
+ * <p>
+ * Everything is appended straight to the caller's {@link Appendable}, one
+ * character at a time for numbers, so rendering creates no intermediate
+ * Strings. {@link #utf8(ByteBuffer)} adapts a ByteBuffer so output can be
+ * encoded straight into a network buffer. The StringBuilder overloads are for
+ * callers that build a String and cannot see an IOException.
+ */
+final class ItineraryRenderer {
+    private ItineraryRenderer() {
+    }
+
+    /**
+     * Appends "ID: [fid] Day: [day] ... Price: [price]", without a line break
+     *
+     * @see Flight#toString()
+     */
+    static void flight(Appendable out, Flight flight) throws IOException {
+        out.append("ID: ");
+        appendInt(out, flight.fid);
+        out.append(" Day: ");
+        appendInt(out, flight.dayOfMonth);
+        out.append(" Carrier: ").append(flight.carrierId);
+        out.append(" Number: ").append(flight.flightNum);
+        out.append(" Origin: ").append(flight.originCity);
+        out.append(" Dest: ").append(flight.destCity);
+        out.append(" Duration: ");
+        appendInt(out, flight.time);
+        out.append(" Capacity: ");
+        appendInt(out, flight.capacity);
+        out.append(" Price: ");
+        appendInt(out, flight.price);
+    }
+
+    /**
+     * Appends a search result: its header line and one line per flight
+     */
+    static void itinerary(Appendable out, int itineraryId, List<Flight> itinerary) throws IOException {
+        int minutes = 0;
+        for (Flight flight : itinerary) {
+            minutes += flight.time;
+        }
+        out.append("Itinerary ");
+        appendInt(out, itineraryId);
+        out.append(": ");
+        appendInt(out, itinerary.size());
+        out.append(" flight(s), ");
+        appendInt(out, minutes);
+        out.append(" minutes\n");
+        flights(out, itinerary);
+    }
+
+    /**
+     * Appends a reservation: its header line and one line per flight
+     */
+    static void reservation(Appendable out, int reservationId, boolean paid, List<Flight> itinerary)
+            throws IOException {
+        out.append("Reservation ");
+        appendInt(out, reservationId);
+        out.append(" paid: ").append(paid ? "true" : "false").append(":\n");
+        flights(out, itinerary);
+    }
+
+    static void flight(StringBuilder out, Flight flight) {
+        try {
+            flight((Appendable) out, flight);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static void itinerary(StringBuilder out, int itineraryId, List<Flight> itinerary) {
+        try {
+            itinerary((Appendable) out, itineraryId, itinerary);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static void reservation(StringBuilder out, int reservationId, boolean paid, List<Flight> itinerary) {
+        try {
+            reservation((Appendable) out, reservationId, paid, itinerary);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Appends the decimal digits of an int without creating a String
+     */
+    static void appendInt(Appendable out, int value) throws IOException {
+        // work with the negative value so Integer.MIN_VALUE needs no special case
+        int n = value;
+        if (n < 0) {
+            out.append('-');
+        } else {
+            n = -n;
+        }
+        int divisor = 1;
+        while (n / divisor <= -10) {
+            divisor *= 10;
+        }
+        while (divisor != 0) {
+            out.append((char) ('0' - n / divisor));
+            n %= divisor;
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * An Appendable that encodes UTF-8 into the buffer
+     *
+     * @throws java.nio.BufferOverflowException from append when the buffer is full
+     */
+    static Appendable utf8(ByteBuffer buffer) {
+        return new Utf8Appender(buffer);
+    }
+
+    private static void flights(Appendable out, List<Flight> itinerary) throws IOException {
+        for (Flight flight : itinerary) {
+            flight(out, flight);
+            out.append('\n');
+        }
+    }
+
+    /*
+     * UTF-8 encoder that writes into a ByteBuffer one char at a time
+     */
+    private static final class Utf8Appender implements Appendable {
+        private final ByteBuffer buffer;
+        // high surrogate waiting for its low half
+        private char high;
+
+        Utf8Appender(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            if (csq == null) csq = "null";
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            if (csq == null) csq = "null";
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if (high != 0) {
+                char h = high;
+                high = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(h, c);
+                    buffer.put((byte) (0xF0 | cp >> 18));
+                    buffer.put((byte) (0x80 | (cp >> 12 & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp >> 6 & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp & 0x3F)));
+                    return this;
+                }
+                buffer.put((byte) '?');
+            }
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                high = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | (c >> 6 & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,808 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * FlightStore backed by the SQL Server tables of createTables.sql.
+ * <p>
+ * Sessions either pin a connection of their own or, when
+ * {@code flightservice.pool.max_size} is set, borrow one from the shared
+ * {@link ConnectionPool} per transaction. Searches can be served from the
+ * shared {@link FlightIndex}; everything else runs the canned statements
+ * below.
+ * One-stop searches read the Connections table of {@link SchemaMigrator}
+ * instead of joining Flights with itself when
+ * {@code flightservice.search_connections} is set.
+ */
+class JdbcFlightStore implements FlightStore {
+    // Canned queries
+    static final String GET_DIRECT_FLIGHTS = "SELECT TOP (?) * " +
+            "FROM Flights WHERE origin_city = ? AND dest_city = ? AND canceled = 0 AND day_of_month = ? " +
+            "ORDER BY actual_time, fid;";
+    static final String GET_INDIRECT_FLIGHTS = "SELECT TOP (? - ?)" +
+            "F.fid, F.carrier_id, " +
+            "F.flight_num, F.dest_city, F.actual_time, F.capacity,\n" +
+            "F.price, F2.fid, F2.carrier_id, F2.flight_num, F2.actual_time, F2.capacity, F2.price\n" +
+            "FROM Flights AS F, Flights AS F2 \n" +
+            "WHERE F.origin_city = ? AND F.dest_city = F2.origin_city AND F2.dest_city = ?\n" +
+            "    AND F.canceled = F2.canceled AND F.canceled = 0 AND F.day_of_month = F2.day_of_month \n" +
+            "    AND F.day_of_month = ?\n" +
+            "ORDER BY (F.actual_time + F2.actual_time), F.fid, F2.fid";
+    // keyset seeks past the Compare key (total time, fid, second fid) of the last itinerary read
+    static final String GET_DIRECT_FLIGHTS_AFTER = "SELECT TOP (?) * " +
+            "FROM Flights WHERE origin_city = ? AND dest_city = ? AND canceled = 0 AND day_of_month = ? " +
+            "AND (actual_time > ? OR (actual_time = ? AND fid > ?)) " +
+            "ORDER BY actual_time, fid;";
+    static final String GET_INDIRECT_FLIGHTS_AFTER = "SELECT TOP (?) " +
+            "F.fid, F.carrier_id, " +
+            "F.flight_num, F.dest_city, F.actual_time, F.capacity,\n" +
+            "F.price, F2.fid, F2.carrier_id, F2.flight_num, F2.actual_time, F2.capacity, F2.price\n" +
+            "FROM Flights AS F, Flights AS F2 \n" +
+            "WHERE F.origin_city = ? AND F.dest_city = F2.origin_city AND F2.dest_city = ?\n" +
+            "    AND F.canceled = F2.canceled AND F.canceled = 0 AND F.day_of_month = F2.day_of_month \n" +
+            "    AND F.day_of_month = ?\n" +
+            "    AND (F.actual_time + F2.actual_time > ? OR (F.actual_time + F2.actual_time = ? \n" +
+            "        AND (F.fid > ? OR (F.fid = ? AND F2.fid > ?))))\n" +
+            "ORDER BY (F.actual_time + F2.actual_time), F.fid, F2.fid";
+    // the two one-stop searches above over the materialized Connections, with the same parameters
+    static final String GET_CONNECTIONS = "SELECT TOP (? - ?) " +
+            "F.fid, F.carrier_id, " +
+            "F.flight_num, F.dest_city, F.actual_time, F.capacity,\n" +
+            "F.price, F2.fid, F2.carrier_id, F2.flight_num, F2.actual_time, F2.capacity, F2.price\n" +
+            "FROM Connections AS C JOIN Flights AS F ON F.fid = C.fid1 JOIN Flights AS F2 ON F2.fid = C.fid2\n" +
+            "WHERE C.origin_city = ? AND C.dest_city = ? AND C.day = ?\n" +
+            "ORDER BY C.total_time, C.fid1, C.fid2";
+    static final String GET_CONNECTIONS_AFTER = "SELECT TOP (?) " +
+            "F.fid, F.carrier_id, " +
+            "F.flight_num, F.dest_city, F.actual_time, F.capacity,\n" +
+            "F.price, F2.fid, F2.carrier_id, F2.flight_num, F2.actual_time, F2.capacity, F2.price\n" +
+            "FROM Connections AS C JOIN Flights AS F ON F.fid = C.fid1 JOIN Flights AS F2 ON F2.fid = C.fid2\n" +
+            "WHERE C.origin_city = ? AND C.dest_city = ? AND C.day = ?\n" +
+            "    AND (C.total_time > ? OR (C.total_time = ? \n" +
+            "        AND (C.fid1 > ? OR (C.fid1 = ? AND C.fid2 > ?))))\n" +
+            "ORDER BY C.total_time, C.fid1, C.fid2";
+    static final String CHECK_DAY_AVAILABILITY = "SELECT res_id \n" +
+            "FROM Reservations AS R WITH (UPDLOCK), Itineraries AS I\n" +
+            "WHERE R.i_id = I.id AND I.day = ? AND R.username = ?";
+    // the same check for several users at once; forLegs gives the IN list a placeholder per user
+    private static final String RESERVED_ON_DAY = "SELECT DISTINCT R.username \n" +
+            "FROM Reservations AS R WITH (UPDLOCK), Itineraries AS I\n" +
+            "WHERE R.i_id = I.id AND I.day = ? AND R.username IN (?, ?)";
+    private static final String CREATE_USER = "INSERT INTO Users(username, pass_hash, pass_salt, " +
+            "balance) VALUES (?, ?, ?, ?)";
+    private static final String BEGIN_TRANSACTION_SQL = "BEGIN TRANSACTION;";
+    private static final String CLEAR_TABLES = "DELETE FROM Users;\n" +
+            "UPDATE FlightSeats SET booked = 0;\n" +
+            "DELETE FROM Reservations;\n" +
+            "DELETE FROM ItineraryLegs;\n" +
+            "DELETE FROM Itineraries; \n" +
+            "DBCC CHECKIDENT (Reservations, RESEED, 0);\n" +
+            "DBCC CHECKIDENT (Itineraries, RESEED, 0);";
+    private static final String GET_USER = "SELECT * FROM Users WHERE username = ?";
+    // books one seat on each distinct fid that is not full; createTables.sql seeds a ledger row for
+    // every flight, so there is no insert here whose shared lock would deadlock two bookings
+    private static final String RESERVE_SEATS = "UPDATE FlightSeats SET booked = booked + 1 " +
+            "WHERE fid IN (?, ?) AND booked < capacity";
+    // locks and reads the seats left on each flight from the rows createTables.sql seeds
+    private static final String SEATS_LEFT = "SELECT fid, capacity - booked FROM FlightSeats WITH (UPDLOCK) " +
+            "WHERE fid IN (?, ?)";
+    private static final String TAKE_SEATS = "UPDATE FlightSeats SET booked = booked + ? WHERE fid = ?";
+    private static final String RELEASE_SEATS = "UPDATE FlightSeats SET booked = booked - 1 " +
+            "WHERE fid IN (?, ?) AND booked > 0";
+    private static final String BOOK_ITINERARY = "IF @id IS NULL\n" +
+            "BEGIN\n" +
+            "    INSERT INTO Itineraries (int_fid, dest_fid, total_price, day) VALUES (?, ?, ?, ?);\n" +
+            "    SET @id = SCOPE_IDENTITY();\n" +
+            "END\n" +
+            "INSERT INTO Reservations OUTPUT INSERTED.res_id VALUES (?, 0, @id);";
+    private static final String BOOK_DIRECT_ITINERARY = "DECLARE @id INT;\n" +
+            "SELECT @id = id FROM Itineraries WITH (UPDLOCK, HOLDLOCK) WHERE int_fid IS NULL AND dest_fid = ?;\n" +
+            BOOK_ITINERARY;
+    private static final String BOOK_INDIRECT_ITINERARY = "DECLARE @id INT;\n" +
+            "SELECT @id = id FROM Itineraries WITH (UPDLOCK, HOLDLOCK) WHERE int_fid = ? AND dest_fid = ?;\n" +
+            BOOK_ITINERARY;
+    private static final String SET_BALANCE = "UPDATE Users SET balance = ? WHERE " +
+            "username = ?";
+    private static final String SET_PAID = "UPDATE Reservations SET is_paid = 1 WHERE " +
+            "res_id = ?";
+    private static final String GET_BALANCE = "SELECT balance FROM Users WITH (UPDLOCK) WHERE username = ?";
+    // reservations with the Flights rows of their itinerary: columns 6, 15 and 24 start the rows of
+    // int_fid, dest_fid and the leg. int_fid is null for direct ones, and both fids are null for
+    // routes of three or more legs, which have one row per leg of ItineraryLegs
+    private static final String RESERVATION_COLUMNS = "SELECT R.res_id, R.is_paid, I.int_fid, I.dest_fid, " +
+            "I.total_price,\n" +
+            "F.fid, F.day_of_month, F.carrier_id, F.flight_num, F.origin_city, F.dest_city, F.actual_time, " +
+            "F.capacity, F.price,\n" +
+            "F2.fid, F2.day_of_month, F2.carrier_id, F2.flight_num, F2.origin_city, F2.dest_city, " +
+            "F2.actual_time, F2.capacity, F2.price,\n" +
+            "FL.fid, FL.day_of_month, FL.carrier_id, FL.flight_num, FL.origin_city, FL.dest_city, " +
+            "FL.actual_time, FL.capacity, FL.price\n";
+    private static final String RESERVATION_FLIGHTS = "LEFT JOIN Flights AS F ON F.fid = I.int_fid\n" +
+            "LEFT JOIN Flights AS F2 ON F2.fid = I.dest_fid\n" +
+            "LEFT JOIN ItineraryLegs AS L ON L.i_id = I.id\n" +
+            "LEFT JOIN Flights AS FL ON FL.fid = L.fid\n";
+    static final String GET_RESERVATIONS = RESERVATION_COLUMNS +
+            "FROM Reservations AS R JOIN Itineraries AS I ON I.id = R.i_id\n" +
+            RESERVATION_FLIGHTS +
+            "WHERE R.username = ?\n" +
+            "ORDER BY R.res_id, L.leg";
+    static final String GET_RESERVATION = RESERVATION_COLUMNS +
+            "FROM Reservations AS R WITH (UPDLOCK) JOIN Itineraries AS I ON I.id = R.i_id\n" +
+            RESERVATION_FLIGHTS +
+            "WHERE R.res_id = ? AND R.username = ?\n" +
+            "ORDER BY L.leg";
+    // a new itinerary of three or more legs and a reservation of it; forLegs fills in the legs
+    private static final String BOOK_ROUTE = "INSERT INTO Itineraries (int_fid, dest_fid, total_price, day) " +
+            "VALUES (NULL, NULL, ?, ?);\n" +
+            "DECLARE @id INT = SCOPE_IDENTITY();\n" +
+            "INSERT INTO ItineraryLegs (i_id, leg, fid) VALUES (@id, 0, ?);\n" +
+            "INSERT INTO Reservations OUTPUT INSERTED.res_id VALUES (?, 0, @id);";
+    private static final String ADD_BALANCE = "UPDATE Users SET balance = balance + ? WHERE username = ?";
+    private static final String DELETE_RESERVATION = "DELETE FROM Reservations WHERE res_id = ? ";
+
+    // DB Connection, borrowed per transaction when pooling is enabled
+    private Connection conn;
+    private ConnectionPool pool;
+    // connection the statements below were prepared on
+    private Connection preparedFor;
+    // prepared statements of the pinned connection; pooled connections keep their own
+    private StatementRegistry pinnedStatements;
+    // registry the statements below came from, for the ones built per itinerary length
+    private StatementRegistry registry;
+    // In-memory search index, null when searches go to the database
+    private FlightIndex flightIndex;
+    // Isolation level of read-only transactions
+    private final int readIsolation;
+    // whether one-stop searches read the Connections table
+    private final boolean searchConnections;
+    // round trips this session has made, commits and rollbacks included
+    private long statements;
+
+    private PreparedStatement beginTransactionStatement;
+    private PreparedStatement findDirect;
+    private PreparedStatement findIndirect;
+    private PreparedStatement findDirectAfter;
+    private PreparedStatement findIndirectAfter;
+    private PreparedStatement checkDayAvailability;
+    private PreparedStatement createUser;
+    private PreparedStatement clearTablesStatement;
+    private PreparedStatement getUser;
+    private PreparedStatement reserveSeats;
+    private PreparedStatement releaseSeats;
+    private PreparedStatement bookDirectItinerary;
+    private PreparedStatement bookIndirectItinerary;
+    private PreparedStatement setBalance;
+    private PreparedStatement setPaid;
+    private PreparedStatement getBalance;
+    private PreparedStatement getReservations;
+    private PreparedStatement getReservation;
+    private PreparedStatement addBalance;
+    private PreparedStatement deleteReservation;
+
+    /**
+     * Connects with the {@code hw1.*} and {@code flightservice.*} settings in
+     * {@code configProps}.
+     */
+    JdbcFlightStore(Properties configProps) throws SQLException {
+        readIsolation = TransactionProfile.parseIsolation(
+                configProps.getProperty("flightservice.read_isolation", "read_committed"));
+        searchConnections = Boolean.parseBoolean(
+                configProps.getProperty("flightservice.search_connections", "false"));
+        String connectionUrl = connectionUrl(configProps);
+
+        if (configProps.getProperty("flightservice.pool.max_size") != null) {
+            // Share a pool of connections with the other sessions, borrowing one per transaction
+            pool = ConnectionPool.shared(connectionUrl, configProps);
+        } else {
+            conn = DriverManager.getConnection(connectionUrl);
+
+            // By default, automatically commit after each statement
+            conn.setAutoCommit(true);
+
+            // By default, set the transaction isolation level to serializable
+            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            pinnedStatements = new StatementRegistry(conn);
+        }
+
+        // Optionally bring the schema up to date before the first session uses it
+        if (Boolean.parseBoolean(configProps.getProperty("flightservice.schema.migrate", "false"))) {
+            acquire();
+            try {
+                SchemaMigrator.migrateOnce(conn);
+            } finally {
+                release();
+            }
+        }
+
+        // Optionally serve searches from the shared in-memory flight index
+        if (Boolean.parseBoolean(configProps.getProperty("flightservice.search_index", "false"))) {
+            acquire();
+            try {
+                flightIndex = FlightIndex.shared(conn);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * JDBC URL of the database named by the {@code hw1.*} settings
+     */
+    static String connectionUrl(Properties configProps) {
+        String serverURL = configProps.getProperty("hw1.server_url");
+        String port = configProps.getProperty("hw1.port", "1433");
+        String dbName = configProps.getProperty("hw1.database_name");
+        String adminName = configProps.getProperty("hw1.username");
+        String password = configProps.getProperty("hw1.password");
+        return String.format("jdbc:sqlserver://%s:%s;databaseName=%s;user=%s;password=%s", serverURL, port,
+                dbName, adminName, password);
+    }
+
+    /*
+     * borrows a connection from the pool if this session does not hold one, and makes sure the
+     * prepared statements belong to it
+     */
+    private void acquire() throws SQLException {
+        if (pool != null && conn == null) {
+            conn = pool.borrow();
+        }
+        if (conn != preparedFor) {
+            prepare();
+        }
+    }
+
+    /*
+     * hands a pooled connection back once the transaction using it is over
+     */
+    private void release() {
+        if (pool == null || conn == null) return;
+        pool.release(conn);
+        conn = null;
+    }
+
+    @Override
+    public void prepare() throws SQLException {
+        // pooled sessions prepare on each borrowed connection instead
+        if (conn == null) return;
+        StatementRegistry statements = pool != null ? pool.statements(conn) : pinnedStatements;
+        findDirect = statements.get(GET_DIRECT_FLIGHTS);
+        findIndirect = statements.get(searchConnections ? GET_CONNECTIONS : GET_INDIRECT_FLIGHTS);
+        findDirectAfter = statements.get(GET_DIRECT_FLIGHTS_AFTER);
+        findIndirectAfter = statements.get(searchConnections ? GET_CONNECTIONS_AFTER : GET_INDIRECT_FLIGHTS_AFTER);
+        checkDayAvailability = statements.get(CHECK_DAY_AVAILABILITY);
+        createUser = statements.get(CREATE_USER);
+        beginTransactionStatement = statements.get(BEGIN_TRANSACTION_SQL);
+        clearTablesStatement = statements.get(CLEAR_TABLES);
+        getUser = statements.get(GET_USER);
+        reserveSeats = statements.get(RESERVE_SEATS);
+        releaseSeats = statements.get(RELEASE_SEATS);
+        bookDirectItinerary = statements.get(BOOK_DIRECT_ITINERARY);
+        bookIndirectItinerary = statements.get(BOOK_INDIRECT_ITINERARY);
+        setBalance = statements.get(SET_BALANCE);
+        setPaid = statements.get(SET_PAID);
+        getBalance = statements.get(GET_BALANCE);
+        getReservations = statements.get(GET_RESERVATIONS);
+        getReservation = statements.get(GET_RESERVATION);
+        addBalance = statements.get(ADD_BALANCE);
+        deleteReservation = statements.get(DELETE_RESERVATION);
+        registry = statements;
+        preparedFor = conn;
+    }
+
+    @Override
+    public void begin(TransactionProfile profile) throws SQLException {
+        acquire();
+        int isolation = profile.isolation(readIsolation);
+        // the driver caches the level, so this only goes to the server when it changes
+        if (conn.getTransactionIsolation() != isolation) {
+            conn.setTransactionIsolation(isolation);
+        }
+        conn.setAutoCommit(false);
+        executeUpdate(beginTransactionStatement);
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        statements++;
+        conn.commit();
+        conn.setAutoCommit(true);
+        release();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        if (conn == null) return;
+        try {
+            statements++;
+            conn.rollback();
+            conn.setAutoCommit(true);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (pool != null) {
+            release();
+        } else {
+            pinnedStatements.close();
+            conn.close();
+        }
+    }
+
+    @Override
+    public void clear() throws SQLException {
+        acquire();
+        try {
+            executeUpdate(clearTablesStatement);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void createUser(String username, byte[] passHash, byte[] passSalt, int balance) throws SQLException {
+        createUser.clearParameters();
+        createUser.setString(1, username);
+        createUser.setBytes(2, passHash);
+        createUser.setBytes(3, passSalt);
+        createUser.setInt(4, balance);
+        executeUpdate(createUser);
+    }
+
+    @Override
+    public User getUser(String username) throws SQLException {
+        getUser.clearParameters();
+        getUser.setString(1, username);
+        try (ResultSet data = executeQuery(getUser)) {
+            if (!data.next()) return null;
+            return new User(data.getString("username"), data.getBytes("pass_hash"), data.getBytes("pass_salt"),
+                    data.getInt("balance"));
+        }
+    }
+
+    @Override
+    public int getBalanceForUpdate(String username) throws SQLException {
+        getBalance.clearParameters();
+        getBalance.setString(1, username);
+        ResultSet amount = executeQuery(getBalance);
+        amount.next();
+        int totalBalance = amount.getInt("balance");
+        amount.close();
+        return totalBalance;
+    }
+
+    @Override
+    public void setBalance(String username, int balance) throws SQLException {
+        setBalance.clearParameters();
+        setBalance.setInt(1, balance);
+        setBalance.setString(2, username);
+        executeUpdate(setBalance);
+    }
+
+    @Override
+    public void addBalance(String username, int amount) throws SQLException {
+        addBalance.clearParameters();
+        addBalance.setInt(1, amount);
+        addBalance.setString(2, username);
+        executeUpdate(addBalance);
+    }
+
+    @Override
+    public List<ArrayList<Flight>> search(String originCity, String destinationCity, boolean directFlight,
+                                          int dayOfMonth, int numberOfItineraries) throws SQLException {
+        if (flightIndex != null) {
+            return flightIndex.search(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+        }
+        acquire();
+        try {
+            return searchDatabase(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public List<ArrayList<Flight>> searchAfter(String originCity, String destinationCity, boolean directFlight,
+                                               int dayOfMonth, Compare after, int limit) throws SQLException {
+        if (flightIndex != null) {
+            return flightIndex.searchAfter(originCity, destinationCity, directFlight, dayOfMonth, after, limit);
+        }
+        if (limit <= 0) return new ArrayList<>();
+        Compare key = after != null ? after : new Compare(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        acquire();
+        try {
+            List<ArrayList<Flight>> page = new ArrayList<>();
+            findDirectAfter.clearParameters();
+            findDirectAfter.setInt(1, limit);
+            findDirectAfter.setString(2, originCity);
+            findDirectAfter.setString(3, destinationCity);
+            findDirectAfter.setInt(4, dayOfMonth);
+            findDirectAfter.setInt(5, key.totalTime);
+            findDirectAfter.setInt(6, key.totalTime);
+            findDirectAfter.setInt(7, key.fid);
+            try (ResultSet directFlights = executeQuery(findDirectAfter)) {
+                while (directFlights.next()) {
+                    page.add(new ArrayList<>(Collections.singletonList(new Flight(directFlights.getInt("fid"),
+                            dayOfMonth, directFlights.getString("carrier_id"),
+                            directFlights.getString("flight_num"), originCity, destinationCity,
+                            directFlights.getInt("actual_time"), directFlights.getInt("capacity"),
+                            directFlights.getInt("price")))));
+                }
+            }
+            if (!directFlight) {
+                findIndirectAfter.clearParameters();
+                findIndirectAfter.setInt(1, limit);
+                findIndirectAfter.setString(2, originCity);
+                findIndirectAfter.setString(3, destinationCity);
+                findIndirectAfter.setInt(4, dayOfMonth);
+                findIndirectAfter.setInt(5, key.totalTime);
+                findIndirectAfter.setInt(6, key.totalTime);
+                findIndirectAfter.setInt(7, key.fid);
+                findIndirectAfter.setInt(8, key.fid);
+                findIndirectAfter.setInt(9, key.fid_2);
+                try (ResultSet results = executeQuery(findIndirectAfter)) {
+                    while (results.next()) {
+                        page.add(oneStop(results, originCity, destinationCity, dayOfMonth));
+                    }
+                }
+                // both halves are sorted and hold at most limit rows each
+                page.sort(Compare::compare);
+            }
+            return page.size() > limit ? new ArrayList<>(page.subList(0, limit)) : page;
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public List<ArrayList<Flight>> routes(String originCity, String destinationCity, int dayOfMonth, int maxLegs,
+                                          int limit) throws SQLException {
+        // routes need the whole flight graph, so the index is loaded on first use even when searches skip it
+        FlightIndex graph = flightIndex;
+        if (graph == null) {
+            acquire();
+            try {
+                graph = FlightIndex.shared(conn);
+            } finally {
+                release();
+            }
+        }
+        return graph.routes(originCity, destinationCity, dayOfMonth, maxLegs, limit);
+    }
+
+    /*
+     * returns up to numberOfItineraries direct and, unless directFlight is set, one-stop itineraries
+     * from the database, in Compare order
+     */
+    private List<ArrayList<Flight>> searchDatabase(String originCity, String destinationCity, boolean directFlight,
+                                                   int dayOfMonth, int numberOfItineraries) throws SQLException {
+        List<ArrayList<Flight>> direct = new ArrayList<>();
+        findDirect.clearParameters();
+        findDirect.setInt(1, numberOfItineraries);
+        findDirect.setString(2, originCity);
+        findDirect.setString(3, destinationCity);
+        findDirect.setInt(4, dayOfMonth);
+        ResultSet directFlights = executeQuery(findDirect);
+        while (directFlights.next()) {
+            int fid = directFlights.getInt("fid");
+            String carrierId = directFlights.getString("carrier_id");
+            String flightNum = directFlights.getString("flight_num");
+            int time = directFlights.getInt("actual_time");
+            int capacity = directFlights.getInt("capacity");
+            int price = directFlights.getInt("price");
+            Flight flight = new Flight(fid, dayOfMonth, carrierId, flightNum, originCity,
+                    destinationCity, time, capacity, price);
+            direct.add(new ArrayList<>(Collections.singletonList(flight)));
+        }
+        directFlights.close();
+        if (directFlight || direct.size() >= numberOfItineraries) return direct;
+
+        ItineraryMerger merger = new ItineraryMerger(direct, numberOfItineraries);
+        findIndirect.clearParameters();
+        findIndirect.setInt(1, numberOfItineraries);
+        findIndirect.setInt(2, direct.size());
+        findIndirect.setString(3, originCity);
+        findIndirect.setString(4, destinationCity);
+        findIndirect.setInt(5, dayOfMonth);
+        ResultSet results = executeQuery(findIndirect);
+        // rows arrive sorted, so stop reading as soon as the top results are settled
+        while (!merger.isFull() && results.next()) {
+            merger.offer(oneStop(results, originCity, destinationCity, dayOfMonth));
+        }
+        results.close();
+        return merger.finish();
+    }
+
+    /*
+     * the one-stop itinerary in the current row of an indirect flight search
+     */
+    private static ArrayList<Flight> oneStop(ResultSet results, String originCity, String destinationCity,
+                                             int dayOfMonth) throws SQLException {
+        int intFid = results.getInt(1);
+        String intCarrierId = results.getString(2);
+        String intFlightNum = results.getString(3);
+        String intCity = results.getString(4);
+        int intTime = results.getInt(5);
+        int intCapacity = results.getInt(6);
+        int intPrice = results.getInt(7);
+
+        int destFid = results.getInt(8);
+        String destCarrierId = results.getString(9);
+        String destFlightNum = results.getString(10);
+        int destTime = results.getInt(11);
+        int destCapacity = results.getInt(12);
+        int destPrice = results.getInt(13);
+
+        ArrayList<Flight> itinerary = new ArrayList<>(2);
+        itinerary.add(new Flight(intFid, dayOfMonth, intCarrierId, intFlightNum,
+                originCity, intCity, intTime, intCapacity, intPrice));
+        itinerary.add(new Flight(destFid, dayOfMonth, destCarrierId, destFlightNum,
+                intCity, destinationCity, destTime, destCapacity, destPrice));
+        return itinerary;
+    }
+
+    @Override
+    public boolean reserveSeats(List<Flight> itinerary) throws SQLException {
+        // the update only matches legs that still have room
+        if (itinerary.size() > 2) {
+            PreparedStatement reserveRoute = registry.get(forLegs(RESERVE_SEATS, itinerary.size()));
+            reserveRoute.clearParameters();
+            for (int i = 0; i < itinerary.size(); i++) {
+                reserveRoute.setInt(i + 1, itinerary.get(i).fid);
+            }
+            return executeUpdate(reserveRoute) == itinerary.size();
+        }
+        reserveSeats.clearParameters();
+        reserveSeats.setInt(1, itinerary.get(0).fid);
+        reserveSeats.setInt(2, itinerary.get(itinerary.size() - 1).fid);
+        return executeUpdate(reserveSeats) == itinerary.size();
+    }
+
+    @Override
+    public void releaseSeats(Reservation reservation) throws SQLException {
+        int[] fids = reservation.fids;
+        if (fids.length > 2) {
+            PreparedStatement releaseRoute = registry.get(forLegs(RELEASE_SEATS, fids.length));
+            releaseRoute.clearParameters();
+            for (int i = 0; i < fids.length; i++) {
+                releaseRoute.setInt(i + 1, fids[i]);
+            }
+            executeUpdate(releaseRoute);
+            return;
+        }
+        releaseSeats.clearParameters();
+        releaseSeats.setInt(1, fids[0]);
+        releaseSeats.setInt(2, fids[fids.length - 1]);
+        executeUpdate(releaseSeats);
+    }
+
+    @Override
+    public boolean hasReservationOnDay(String username, int dayOfMonth) throws SQLException {
+        checkDayAvailability.clearParameters();
+        checkDayAvailability.setInt(1, dayOfMonth);
+        checkDayAvailability.setString(2, username);
+        ResultSet checkDay = executeQuery(checkDayAvailability);
+        boolean dayTaken = checkDay.next();
+        checkDay.close();
+        return dayTaken;
+    }
+
+    @Override
+    public Set<String> reservedOnDay(Collection<String> usernames, int dayOfMonth) throws SQLException {
+        Set<String> reserved = new HashSet<>();
+        if (usernames.isEmpty()) return reserved;
+        PreparedStatement check = registry.get(forLegs(RESERVED_ON_DAY, usernames.size()));
+        check.clearParameters();
+        check.setInt(1, dayOfMonth);
+        int parameter = 2;
+        for (String username : usernames) {
+            check.setString(parameter++, username);
+        }
+        try (ResultSet rows = executeQuery(check)) {
+            while (rows.next()) {
+                reserved.add(rows.getString(1));
+            }
+        }
+        return reserved;
+    }
+
+    @Override
+    public Map<Integer, Integer> seatsLeftForUpdate(Collection<Flight> flights) throws SQLException {
+        Map<Integer, Integer> left = new HashMap<>();
+        if (flights.isEmpty()) return left;
+        PreparedStatement seats = registry.get(forLegs(SEATS_LEFT, flights.size()));
+        seats.clearParameters();
+        int parameter = 1;
+        for (Flight flight : flights) {
+            seats.setInt(parameter++, flight.fid);
+        }
+        try (ResultSet rows = executeQuery(seats)) {
+            while (rows.next()) {
+                left.put(rows.getInt(1), rows.getInt(2));
+            }
+        }
+        return left;
+    }
+
+    @Override
+    public void takeSeats(Map<Integer, Integer> seats) throws SQLException {
+        if (seats.isEmpty()) return;
+        PreparedStatement take = registry.get(TAKE_SEATS);
+        for (Map.Entry<Integer, Integer> count : seats.entrySet()) {
+            take.setInt(1, count.getValue());
+            take.setInt(2, count.getKey());
+            take.addBatch();
+        }
+        // one round trip for every flight
+        statements++;
+        take.executeBatch();
+    }
+
+    @Override
+    public int book(String username, List<Flight> itinerary) throws SQLException {
+        // find or create the itinerary and insert the reservation in one round trip
+        PreparedStatement book;
+        int destFid = itinerary.get(itinerary.size() - 1).fid;
+        if (itinerary.size() > 2) {
+            return bookRoute(username, itinerary);
+        } else if (itinerary.size() == 1) {
+            book = bookDirectItinerary;
+            book.clearParameters();
+            book.setInt(1, destFid);
+            book.setNull(2, Types.INTEGER);
+            book.setInt(3, destFid);
+            book.setInt(4, itinerary.get(0).price);
+        } else {
+            int intFid = itinerary.get(0).fid;
+            book = bookIndirectItinerary;
+            book.clearParameters();
+            book.setInt(1, intFid);
+            book.setInt(2, destFid);
+            book.setInt(3, intFid);
+            book.setInt(4, destFid);
+            book.setInt(5, itinerary.get(0).price + itinerary.get(1).price);
+        }
+        book.setInt(itinerary.size() + 4, itinerary.get(0).dayOfMonth);
+        book.setString(itinerary.size() + 5, username);
+        ResultSet rID = firstResultSet(book);
+        if (rID == null || !rID.next()) {
+            throw new SQLException("Booking did not return a reservation id");
+        }
+        int resID = rID.getInt("res_id");
+        rID.close();
+        return resID;
+    }
+
+    /*
+     * routes of three or more legs get an itinerary of their own, with the legs in ItineraryLegs
+     */
+    private int bookRoute(String username, List<Flight> itinerary) throws SQLException {
+        PreparedStatement book = registry.get(forLegs(BOOK_ROUTE, itinerary.size()));
+        book.clearParameters();
+        int totalPrice = 0;
+        for (Flight leg : itinerary) {
+            totalPrice += leg.price;
+        }
+        book.setInt(1, totalPrice);
+        book.setInt(2, itinerary.get(0).dayOfMonth);
+        for (int i = 0; i < itinerary.size(); i++) {
+            book.setInt(i + 3, itinerary.get(i).fid);
+        }
+        book.setString(itinerary.size() + 3, username);
+        ResultSet rID = firstResultSet(book);
+        if (rID == null || !rID.next()) {
+            throw new SQLException("Booking did not return a reservation id");
+        }
+        int resID = rID.getInt("res_id");
+        rID.close();
+        return resID;
+    }
+
+    /*
+     * the statement for an itinerary of the given number of legs: every "IN (?, ?)" gets a
+     * placeholder per leg, and the single ItineraryLegs row of BOOK_ROUTE becomes one row per leg
+     */
+    private static String forLegs(String sql, int legs) {
+        StringBuilder in = new StringBuilder("IN (?");
+        StringBuilder rows = new StringBuilder("(@id, 0, ?)");
+        for (int leg = 1; leg < legs; leg++) {
+            in.append(", ?");
+            rows.append(", (@id, ").append(leg).append(", ?)");
+        }
+        return sql.replace("IN (?, ?)", in.append(')').toString()).replace("(@id, 0, ?)", rows.toString());
+    }
+
+    @Override
+    public Reservation getReservationForUpdate(int reservationId, String username) throws SQLException {
+        getReservation.clearParameters();
+        getReservation.setInt(1, reservationId);
+        getReservation.setString(2, username);
+        try (ResultSet rows = executeQuery(getReservation)) {
+            List<Reservation> reservation = reservations(rows);
+            return reservation.isEmpty() ? null : reservation.get(0);
+        }
+    }
+
+    @Override
+    public void setPaid(int reservationId) throws SQLException {
+        setPaid.clearParameters();
+        setPaid.setInt(1, reservationId);
+        executeUpdate(setPaid);
+    }
+
+    @Override
+    public void deleteReservation(int reservationId) throws SQLException {
+        deleteReservation.clearParameters();
+        deleteReservation.setInt(1, reservationId);
+        executeUpdate(deleteReservation);
+    }
+
+    @Override
+    public List<Reservation> getReservations(String username) throws SQLException {
+        getReservations.clearParameters();
+        getReservations.setString(1, username);
+        try (ResultSet results = executeQuery(getReservations)) {
+            return reservations(results);
+        }
+    }
+
+    @Override
+    public long statements() {
+        return statements;
+    }
+
+    private ResultSet executeQuery(PreparedStatement statement) throws SQLException {
+        statements++;
+        return statement.executeQuery();
+    }
+
+    private int executeUpdate(PreparedStatement statement) throws SQLException {
+        statements++;
+        return statement.executeUpdate();
+    }
+
+    /*
+     * reservations from rows of GET_RESERVATIONS, ordered by res_id and leg
+     */
+    private List<Reservation> reservations(ResultSet rows) throws SQLException {
+        List<Reservation> reservations = new ArrayList<>();
+        boolean more = rows.next();
+        while (more) {
+            int id = rows.getInt(1);
+            boolean paid = rows.getInt(2) == 1;
+            rows.getInt(3);
+            boolean direct = rows.wasNull();
+            rows.getInt(4);
+            boolean route = rows.wasNull();
+            int totalPrice = rows.getInt(5);
+            List<Flight> flights = new ArrayList<>();
+            if (route) {
+                do {
+                    flights.add(Flight.read(rows, 24));
+                    more = rows.next();
+                } while (more && rows.getInt(1) == id);
+            } else {
+                if (!direct) flights.add(Flight.read(rows, 6));
+                flights.add(Flight.read(rows, 15));
+                more = rows.next();
+            }
+            reservations.add(new Reservation(id, paid, flights, totalPrice));
+        }
+        return reservations;
+    }
+
+    /*
+     * executes a statement batch and returns the first result set it produces, skipping update counts
+     */
+    private ResultSet firstResultSet(PreparedStatement statement) throws SQLException {
+        statements++;
+        boolean isResultSet = statement.execute();
+        while (!isResultSet && statement.getUpdateCount() != -1) {
+            isResultSet = statement.getMoreResults();
+        }
+        return isResultSet ? statement.getResultSet() : null;
+    }
+}
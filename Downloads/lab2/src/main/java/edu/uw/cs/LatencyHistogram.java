@@ -0,0 +1,80 @@
+package edu.uw.cs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent log-linear histogram of latencies in nanoseconds.
+ * <p>
+ * Values below 16 ns are counted exactly; above that every power of two is
+ * split into 8 buckets, so a percentile is within about 6% of the true
+ * value. Recording is a handful of uncontended atomic adds and never
+ * allocates, so it can sit on every transaction.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB + SUB);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private volatile long max;
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        total.add(value);
+        if (value > max) {
+            synchronized (this) {
+                if (value > max) max = value;
+            }
+        }
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / (double) n;
+    }
+
+    /**
+     * The value that at least the given fraction of the recorded values are
+     * at or below, as the upper bound of its bucket
+     */
+    long percentile(double fraction) {
+        long n = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(max, upperBound(i));
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) & (SUB - 1));
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB) return index;
+        int shift = index / SUB - 1;
+        return ((long) (SUB + index % SUB) << shift) + (1L << shift) - 1;
+    }
+}
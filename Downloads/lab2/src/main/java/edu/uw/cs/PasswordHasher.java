@@ -0,0 +1,132 @@
+package edu.uw.cs;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs PBKDF2 password hashing on a dedicated, size-limited pool of threads
+ * so login and account creation storms cannot take every core away from
+ * searches and bookings.
+ * <p>
+ * The pool has a bounded queue; once it is full new requests are rejected
+ * straight away instead of piling up behind the ones already waiting. Each
+ * worker keeps its own {@code SecretKeyFactory}.
+ * <p>
+ * The iteration count is configurable, but the Users table does not record it,
+ * so changing it makes existing password hashes unverifiable.
+ */
+class PasswordHasher {
+    static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    static final int DEFAULT_ITERATIONS = 65536;
+    static final int KEY_LENGTH = 128;
+
+    // shared instance, configured by the first session that opens a connection
+    private static PasswordHasher shared;
+
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Returns the process-wide hasher, creating it from the
+     * {@code flightservice.hash.*} settings in {@code configProps} on first use.
+     */
+    static synchronized PasswordHasher shared(Properties configProps) {
+        if (shared == null) {
+            int threads = Integer.parseInt(configProps.getProperty("flightservice.hash.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            shared = new PasswordHasher(threads,
+                    Integer.parseInt(configProps.getProperty("flightservice.hash.queue_depth",
+                            String.valueOf(threads * 16))),
+                    Integer.parseInt(configProps.getProperty("flightservice.hash.iterations",
+                            String.valueOf(DEFAULT_ITERATIONS))));
+        }
+        return shared;
+    }
+
+    PasswordHasher(int threads, int queueDepth, int iterations) {
+        this.iterations = iterations;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth), r -> {
+                    Thread t = new Thread(r, "password-hasher-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Hashes the password with the given salt on the hashing pool, blocking
+     * until the result is ready.
+     *
+     * @throws RejectedExecutionException if the hashing queue is full or the
+     *                                    calling thread was interrupted
+     */
+    byte[] hash(String password, byte[] salt) {
+        Future<byte[]> result = executor.submit(() -> hashInline(password, salt, iterations));
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Hashes the password on the calling thread
+     */
+    static byte[] hashInline(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    int iterations() {
+        return iterations;
+    }
+
+    /**
+     * Number of hashing requests waiting for a worker
+     */
+    int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int activeWorkers() {
+        return executor.getActiveCount();
+    }
+
+    long completed() {
+        return executor.getCompletedTaskCount();
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PasswordHasher[threads=%d iterations=%d active=%d queued=%d completed=%d]",
+                executor.getMaximumPoolSize(), iterations, activeWorkers(), queueDepth(), completed());
+    }
+}
@@ -1,15 +1,12 @@
 package edu.uw.cs;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 
 /**
@@ -21,48 +18,29 @@ public class Query {
     private String currUser;
     private Map<Integer, ArrayList<Flight>> itineraries = new HashMap<>();
 
-    // DB Connection
-    private Connection conn;
-    private static final int MAX_COUNT = 10;
-    // Password hashing parameter constants
-    private static final int HASH_STRENGTH = 65536;
-    private static final int KEY_LENGTH = 128;
-
-    // Canned queries
-    private static final String CHECK_FLIGHT_CAPACITY = "SELECT capacity FROM Flights WHERE fid = ?";
-    private static final String GET_DIRECT_FLIGHTS = "SELECT TOP (?) * " +
-            "FROM Flights WHERE origin_city = ? AND dest_city = ? AND canceled = 0 AND day_of_month = ? " +
-            "ORDER BY actual_time, fid;";
-    private static final String GET_INDIRECT_FLIGHTS = "SELECT TOP (? - ?)" +
-            "F.fid, F.carrier_id, " +
-            "F.flight_num, F.dest_city, F.actual_time, F.capacity,\n" +
-            "F.price, F2.fid, F2.carrier_id, F2.flight_num, F2.actual_time, F2.capacity, F2.price\n" +
-            "FROM Flights AS F, Flights AS F2 \n" +
-            "WHERE F.origin_city = ? AND F.dest_city = F2.origin_city AND F2.dest_city = ?\n" +
-            "    AND F.canceled = F2.canceled AND F.canceled = 0 AND F.day_of_month = F2.day_of_month \n" +
-            "    AND F.day_of_month = ?\n" +
-            "ORDER BY (F.actual_time + F2.actual_time), F.fid, F2.fid";
-    private static final String CHECK_DAY_AVAILABILITY = "SELECT res_id \n" +
-            "FROM Reservations AS R, Itineraries AS I\n" +
-            "WHERE R.i_id = I.id AND I.day = ? AND R.username = ?";
-    private static final String GET_UNPAID_RESERVATIONS = "SELECT R.res_id, I.total_price\n" +
-            "FROM Reservations AS R, Itineraries AS I\n" +
-            "WHERE R.res_id = ? AND R.username = ? AND R.i_id = I.id AND R.is_paid = 0";
-    private static final String CREATE_USER = "INSERT INTO Users(username, pass_hash, pass_salt, " +
-            "balance) VALUES (?, ?, ?, ?)";
-    private static final String GET_FLIGHT_DATA = "SELECT * FROM Flights WHERE fid = ?";
-    private static final String GET_ITINERARY_DATA = "SELECT int_fid, dest_fid FROM Itineraries " +
-            "WHERE id = ?";
-    private static final String BEGIN_TRANSACTION_SQL = "BEGIN TRANSACTION;";
-    private PreparedStatement beginTransactionStatement;
-    private PreparedStatement checkFlightCapacityStatement;
-    private PreparedStatement findDirect;
-    private PreparedStatement findIndirect;
-    private PreparedStatement checkDayAvailability;
-    private PreparedStatement unpaidReservations;
-    private PreparedStatement getFlight;
-    private PreparedStatement createUser;
-    private PreparedStatement getItineraryData;
+    // Tables of this session, in SQL Server or in the in-memory engine
+    private FlightStore store;
+    private Properties configProps;
+    // Shared search result cache, null when disabled
+    private SearchCache searchCache;
+    // Retries transactions that lose out to lock contention
+    private RetryPolicy retry;
+    // Password hashing runs on a shared, bounded worker pool
+    private PasswordHasher hasher;
+    // Process-wide latency and round trip counts per transaction type
+    private TransactionMetrics metrics;
+    // Signs and checks the tokens that resume a session without a password
+    private SessionTokens sessionTokens;
+    // Tables of the read replica and when reads may use them, null without a replica
+    private FlightStore replica;
+    private ReplicaRouter router;
+    // whether reservations may be listed from the replica
+    private boolean replicaReservations;
+    // System.nanoTime() of this session's last committed write, if it has written
+    private boolean wrote;
+    private long lastWrite;
+    // Books in batches shared with other sessions, null when every booking is its own transaction
+    private BookingCoordinator coordinator;
 
     /**
      * Establishes a new application-to-database connection. Uses the
@@ -72,29 +50,103 @@ public class Query {
      * @throws SQLException
      */
     public void openConnection() throws IOException, SQLException {
-        // Connect to the database with the provided connection configuration
+        openConnection(settings());
+    }
+
+    /**
+     * Reads the dbconn.properties configuration settings, with any
+     * {@code flightservice.*} system properties overriding them
+     */
+    static Properties settings() throws IOException {
         Properties configProps = new Properties();
-        configProps.load(new FileInputStream("dbconn.properties"));
-        String serverURL = configProps.getProperty("hw1.server_url");
-        String dbName = configProps.getProperty("hw1.database_name");
-        String adminName = configProps.getProperty("hw1.username");
-        String password = configProps.getProperty("hw1.password");
-        String connectionUrl = String.format("jdbc:sqlserver://%s:1433;databaseName=%s;user=%s;password=%s", serverURL,
-                dbName, adminName, password);
-        conn = DriverManager.getConnection(connectionUrl);
+        try (FileInputStream in = new FileInputStream("dbconn.properties")) {
+            configProps.load(in);
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("flightservice.")) {
+                configProps.setProperty(name, System.getProperty(name));
+            }
+        }
+        return configProps;
+    }
+
+    /**
+     * Establishes a new application-to-database connection with the given
+     * settings, as read by {@link #settings}
+     */
+    void openConnection(Properties configProps) throws IOException, SQLException {
+        // Connect to the database with the provided connection configuration
+        FlightStore store = openStore(configProps);
+        FlightStore replica = null;
+        // Optionally send read-only transactions to a replica
+        if (store instanceof JdbcFlightStore && ReplicaRouter.enabled(configProps)) {
+            try {
+                replica = new JdbcFlightStore(ReplicaRouter.replicaProps(configProps));
+            } catch (SQLException ex) {
+                // reads stay on the primary for this session
+            }
+        }
+        openConnection(configProps, store, replica);
+    }
 
-        // By default, automatically commit after each statement
-        conn.setAutoCommit(true);
+    /**
+     * Opens a store of the kind {@code flightservice.storage} names
+     */
+    static FlightStore openStore(Properties configProps) throws IOException, SQLException {
+        String storage = configProps.getProperty("flightservice.storage", "jdbc");
+        if (storage.equals("jdbc")) {
+            return new JdbcFlightStore(configProps);
+        } else if (storage.equals("memory")) {
+            // Keep the tables in this JVM, one engine shared by every session
+            return new InMemoryFlightStore(InMemoryStorage.shared(configProps));
+        } else {
+            throw new IllegalArgumentException("Unknown flightservice.storage " + storage);
+        }
+    }
+
+    /**
+     * Opens the session on a store the caller has already set up
+     */
+    void openConnection(Properties configProps, FlightStore store) {
+        openConnection(configProps, store, null);
+    }
+
+    /**
+     * Opens the session on a store and, unless it is null, a read replica of
+     * it that the caller has already set up
+     */
+    void openConnection(Properties configProps, FlightStore store, FlightStore replica) {
+        this.configProps = configProps;
+        this.store = store;
+        this.replica = replica;
+        if (replica != null) {
+            router = ReplicaRouter.shared(configProps);
+            replicaReservations = Boolean.parseBoolean(
+                    configProps.getProperty("flightservice.replica.reservations", "false"));
+        }
+        hasher = PasswordHasher.shared(configProps);
+        retry = RetryPolicy.shared(configProps);
+        metrics = TransactionMetrics.shared(configProps, retry);
+        sessionTokens = SessionTokens.shared(configProps);
+        if (BookingCoordinator.enabled(configProps)) {
+            coordinator = BookingCoordinator.shared(configProps);
+        }
 
-        // By default, set the transaction isolation level to serializable
-        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        // Optionally share search results across sessions
+        int searchCacheSize = Integer.parseInt(configProps.getProperty("flightservice.search_cache_size", "0"));
+        if (searchCacheSize > 0) {
+            searchCache = SearchCache.shared(searchCacheSize);
+        }
     }
 
     /**
      * Closes the application-to-database connection
      */
     public void closeConnection() throws SQLException {
-        conn.close();
+        store.close();
+        if (replica != null) {
+            replica.close();
+        }
     }
 
     /**
@@ -104,13 +156,11 @@ public class Query {
      */
     public void clearTables() {
         try {
-            PreparedStatement clear = conn.prepareStatement("DELETE FROM Users;\n" +
-                    "DELETE FROM Reservations;\n" +
-                    "DELETE FROM Itineraries; \n" +
-                    "DBCC CHECKIDENT (Reservations, RESEED, 0);\n" +
-                    "DBCC CHECKIDENT (Itineraries, RESEED, 0);");
-            clear.executeUpdate();
-            clear.close();
+            store.clear();
+            sessionTokens.revokeAll();
+            if (searchCache != null) {
+                searchCache.clear();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -120,34 +170,17 @@ public class Query {
      * prepare all the SQL statements in this method.
      */
     public void prepareStatements() throws SQLException {
-        checkFlightCapacityStatement = conn.prepareStatement(CHECK_FLIGHT_CAPACITY);
-        findDirect = conn.prepareStatement(GET_DIRECT_FLIGHTS);
-        findIndirect = conn.prepareStatement(GET_INDIRECT_FLIGHTS);
-        checkDayAvailability = conn.prepareStatement(CHECK_DAY_AVAILABILITY);
-        unpaidReservations = conn.prepareStatement(GET_UNPAID_RESERVATIONS);
-        getFlight = conn.prepareStatement(GET_FLIGHT_DATA);
-        createUser = conn.prepareStatement(CREATE_USER);
-        getItineraryData = conn.prepareStatement(GET_ITINERARY_DATA);
-        beginTransactionStatement = conn.prepareStatement(BEGIN_TRANSACTION_SQL);
-    }
-
-    // private helper method for rolling back a transaction
-    private void rollback() throws SQLException {
-        conn.rollback();
-        conn.setAutoCommit(true);
+        store.prepare();
+        if (replica != null) {
+            replica.prepare();
+        }
     }
 
-    // private helper method for committing a transaction
-    private void commit() throws SQLException {
-        conn.commit();
-        conn.setAutoCommit(true);
+    // starts a serializable transaction
+    public void beginTransaction() throws SQLException {
+        store.begin(TransactionProfile.READ_WRITE);
     }
 
-    // starts transaction
-    public void beginTransaction() throws SQLException {
-		conn.setAutoCommit(false);
-		beginTransactionStatement.executeUpdate();
-	}
     /**
      * Takes a user's username and password and attempts to log the user in.
      *
@@ -159,45 +192,81 @@ public class Query {
      */
     public String transaction_login(String username, String password) {
         if (inUse) return "User already logged in\n";
-        byte[] pass_hash = null;
-        byte[] pass_salt = null;
-        for (int i = 0; i < MAX_COUNT; i++) { 
-            try {
-                beginTransaction();
-                PreparedStatement info = conn.prepareStatement("SELECT * FROM Users WHERE username = ?");
-                info.setString(1, username);
-                ResultSet data = info.executeQuery();
-                data.next();
-                pass_hash = data.getBytes("pass_hash");
-                pass_salt = data.getBytes("pass_salt");
-                info.close();
-                commit();
-                KeySpec spec = new PBEKeySpec(password.toCharArray(), pass_salt, HASH_STRENGTH, KEY_LENGTH);
-                SecretKeyFactory factory = null;
-                byte[] hash = null;
+        try {
+            return run("login", () -> {
+                store.begin(TransactionProfile.READ_ONLY);
+                FlightStore.User user = store.getUser(username);
+                store.commit();
+                if (user == null) return "Login failed\n";
+                byte[] hash;
                 try {
-                    factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-                    hash = factory.generateSecret(spec).getEncoded();
-                } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-                    throw new IllegalStateException();
+                    hash = hash(password, user.passSalt);
+                } catch (RejectedExecutionException ex) {
+                    // hashing pool is saturated
+                    return "Login failed\n";
                 }
-                if (Arrays.equals(hash, pass_hash)) {
-                    inUse = true;
-                    currUser = username;
-                    itineraries = new HashMap<>();
-                    return "Logged in as " + username + "\n";
+                if (MessageDigest.isEqual(hash, user.passHash)) {
+                    return logIn(username);
                 } else {
                     return "Login failed\n";
                 }
-            } catch (SQLException ex) {
-                try {
-                    rollback();
-                } catch (SQLException ex2) {
-                    // unnable to complete
-                }
-            }
+            });
+        } catch (SQLException ex) {
+            return "Login failed\n";
         }
-        return "Login failed\n";
+    }
+
+    /**
+     * Logs a user back in with a session token instead of their password. The
+     * token is checked without hashing or touching the database.
+     *
+     * @param token a token from {@link #transaction_sessionToken()}
+     * @return If someone has already logged in, then return "User already logged
+     * in\n". If the token is malformed, forged, expired or revoked, return
+     * "Login failed\n". Otherwise, return "Logged in as [username]\n".
+     */
+    public String transaction_resume(String token) {
+        if (inUse) return "User already logged in\n";
+        long start = System.nanoTime();
+        String username = sessionTokens.validate(token);
+        metrics.record("resume", System.nanoTime() - start, 0, false);
+        if (username == null) return "Login failed\n";
+        return logIn(username);
+    }
+
+    /**
+     * Issues a session token for the logged in user.
+     *
+     * @return If no user has logged in, then return "Cannot issue session token,
+     * not logged in\n". Otherwise, return "Session token: [token]\n".
+     */
+    public String transaction_sessionToken() {
+        if (!inUse) return "Cannot issue session token, not logged in\n";
+        return "Session token: " + sessionTokens.issue(currUser) + "\n";
+    }
+
+    /**
+     * Revokes every session token issued to the logged in user so far. The
+     * current session stays logged in.
+     *
+     * @return If no user has logged in, then return "Cannot revoke session
+     * tokens, not logged in\n". Otherwise, return "Revoked session tokens of
+     * [username]\n".
+     */
+    public String transaction_revokeSessions() {
+        if (!inUse) return "Cannot revoke session tokens, not logged in\n";
+        sessionTokens.revoke(currUser);
+        return "Revoked session tokens of " + currUser + "\n";
+    }
+
+    /*
+     * starts the session of a user whose identity has been checked
+     */
+    private String logIn(String username) {
+        inUse = true;
+        currUser = username;
+        itineraries = new HashMap<>();
+        return "Logged in as " + username + "\n";
     }
 
     /**
@@ -216,35 +285,23 @@ public class Query {
         SecureRandom random = new SecureRandom();
         byte[] pass_salt = new byte[16];
         random.nextBytes(pass_salt);
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), pass_salt, HASH_STRENGTH, KEY_LENGTH);
-        SecretKeyFactory factory = null;
-        byte[] pass_hash = null;
+        byte[] pass_hash;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            pass_hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
+            pass_hash = hash(password, pass_salt);
+        } catch (RejectedExecutionException ex) {
+            // hashing pool is saturated
+            return "Failed to create user\n";
         }
-        for (int i = 0; i < MAX_COUNT; i++) {
-            try {
-                beginTransaction();
-                createUser.clearParameters();
-                createUser.setString(1, username);
-                createUser.setBytes(2, pass_hash);
-                createUser.setBytes(3, pass_salt);
-                createUser.setInt(4, initAmount);
-                createUser.executeUpdate();
-                commit();
+        try {
+            return run("create", () -> {
+                store.begin(TransactionProfile.READ_WRITE);
+                store.createUser(username, pass_hash, pass_salt, initAmount);
+                store.commit();
                 return "Created user " + username + "\n";
-            } catch (SQLException ex) {
-                try {
-                    rollback();
-                } catch (SQLException ex2) {
-                    // unable to complete
-                }
-            }
+            });
+        } catch (SQLException ex) {
+            return "Failed to create user\n";
         }
-        return "Failed to create user\n";
     }
 
     /**
@@ -280,111 +337,147 @@ public class Query {
      */
     public String transaction_search(String originCity, String destinationCity, boolean directFlight, int dayOfMonth,
                                      int numberOfItineraries) {
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         itineraries = new HashMap<>();
-        Map<Compare, ArrayList<Flight>> flightsByTime = new TreeMap<>();
+        List<ArrayList<Flight>> found;
         int itineraryID = 0;
+        long start = System.nanoTime();
+        long statements = statements();
+        boolean ok = false;
         try {
-            findDirect.clearParameters();
-            findDirect.setInt(1, numberOfItineraries);
-            findDirect.setString(2, originCity);
-            findDirect.setString(3, destinationCity);
-            findDirect.setInt(4, dayOfMonth);
-            ResultSet directFlights = findDirect.executeQuery();
-            while (directFlights.next()) {
-                int fid = directFlights.getInt("fid");
-                String carrierId = directFlights.getString("carrier_id");
-                String flightNum = directFlights.getString("flight_num");
-                int time = directFlights.getInt("actual_time");
-                int capacity = directFlights.getInt("capacity");
-                int price = directFlights.getInt("price");
-                Compare compare = new Compare(time, fid, 0);
-                Flight flight = new Flight(fid, dayOfMonth, carrierId, flightNum, originCity,
-                        destinationCity, time, capacity, price);
-                flightsByTime.put(compare, new ArrayList<>());
-                flightsByTime.get(compare).add(flight);
-            }
-            if (directFlight) {
-                if (flightsByTime.size() == 0) return "No flights match your selection.\n";
-                for (Compare compare : flightsByTime.keySet()) {
-                    Flight flight = flightsByTime.get(compare).get(0);
-                    sb.append("Itinerary " + itineraryID + ": 1 flight(s), " + flight.time + " minutes\n");
-                    sb.append("ID: " + flight.fid + " Day: " + dayOfMonth + " Carrier: " + flight.carrierId + " Number: "
-                            + flight.flightNum + " Origin: " + originCity + " Dest: "
-                            + destinationCity + " Duration: " + flight.time
-                            + " Capacity: " + flight.capacity + " Price: " + flight.price + "\n");
-                    itineraries.put(itineraryID, flightsByTime.get(compare));
-                    itineraryID++;
-                }
-            } else {
-                int numDirect = flightsByTime.size();
-                if (numDirect < numberOfItineraries) {
-                    findIndirect.clearParameters();
-                    findIndirect.setInt(1, numberOfItineraries);
-                    findIndirect.setInt(2, numDirect);
-                    findIndirect.setString(3, originCity);
-                    findIndirect.setString(4, destinationCity);
-                    findIndirect.setInt(5, dayOfMonth);
-                    ResultSet results = findIndirect.executeQuery();
-                    while (results.next()) {
-                        int intFid = results.getInt(1);
-                        String intCarrierId = results.getString(2);
-                        String intFlightNum = results.getString(3);
-                        String intCity = results.getString(4);
-                        int intTime = results.getInt(5);
-                        int intCapacity = results.getInt(6);
-                        int intPrice = results.getInt(7);
-
-                        int destFid = results.getInt(8);
-                        String destCarrierId = results.getString(9);
-                        String destFlightNum = results.getString(10);
-                        int destTime = results.getInt(11);
-                        int destCapacity = results.getInt(12);
-                        int destPrice = results.getInt(13);
-
-                        Flight toInt = new Flight(intFid, dayOfMonth, intCarrierId, intFlightNum,
-                                originCity, intCity, intTime, intCapacity, intPrice);
-                        Flight toDest = new Flight(destFid, dayOfMonth, destCarrierId, destFlightNum,
-                                intCity, destinationCity, destTime, destCapacity, destPrice);
-
-                        Compare compare = new Compare(toInt.time + toDest.time, toInt.fid, toDest.fid);
-                        flightsByTime.put(compare, new ArrayList<>());
-                        flightsByTime.get(compare).add(toInt);
-                        flightsByTime.get(compare).add(toDest);
-                    }
-                }
-                if (flightsByTime.size() == 0) return "No flights match your selection.\n";
-                for (Compare compare : flightsByTime.keySet()) {
-                    if (flightsByTime.get(compare).size() == 1) {
-                        Flight flight = flightsByTime.get(compare).get(0);
-                        sb.append("Itinerary " + itineraryID + ": 1 flight(s), " + flight.time + " minutes\n");
-                        sb.append("ID: " + flight.fid + " Day: " + dayOfMonth + " Carrier: " + flight.carrierId + " Number: "
-                                + flight.flightNum + " Origin: " + originCity + " Dest: "
-                                + destinationCity + " Duration: " + flight.time
-                                + " Capacity: " + flight.capacity + " Price: " + flight.price + "\n");
-                    } else {
-                        Flight toInt = flightsByTime.get(compare).get(0);
-                        Flight toDest = flightsByTime.get(compare).get(1);
-                        sb.append("Itinerary " + itineraryID + ": 2 flight(s), " + (toInt.time + toDest.time) + " minutes\n");
-                        sb.append("ID: " + toInt.fid + " Day: " + dayOfMonth + " Carrier: " + toInt.carrierId + " Number: "
-                                + toInt.flightNum + " Origin: " + originCity + " Dest: "
-                                + toInt.destCity + " Duration: " + toInt.time
-                                + " Capacity: " + toInt.capacity + " Price: " + toInt.price + "\n");
-                        sb.append("ID: " + toDest.fid + " Day: " + dayOfMonth + " Carrier: " + toDest.carrierId + " Number: "
-                                + toDest.flightNum + " Origin: " + toDest.originCity + " Dest: "
-                                + destinationCity + " Duration: " + toDest.time
-                                + " Capacity: " + toDest.capacity + " Price: " + toDest.price + "\n");
-                    }
-                    itineraries.put(itineraryID, flightsByTime.get(compare));
-                    itineraryID++;
+            SearchCache.Key key = new SearchCache.Key(originCity, destinationCity, directFlight, dayOfMonth,
+                    numberOfItineraries);
+            found = searchCache != null ? searchCache.get(key) : null;
+            if (found == null) {
+                long generation = searchCache != null ? searchCache.generation() : 0;
+                found = read(false, reads -> reads.search(originCity, destinationCity, directFlight, dayOfMonth,
+                        numberOfItineraries));
+                if (searchCache != null) {
+                    searchCache.put(key, found, generation);
                 }
             }
+            ok = true;
+            if (found.size() == 0) return "No flights match your selection.\n";
+            for (ArrayList<Flight> itinerary : found) {
+                ItineraryRenderer.itinerary(sb, itineraryID, itinerary);
+                itineraries.put(itineraryID, itinerary);
+                itineraryID++;
+            }
         } catch (SQLException ex) {
             return "Failed to search\n";
+        } finally {
+            metrics.record("search", System.nanoTime() - start, statements() - statements, !ok);
         }
         return sb.toString();
     }
 
+    /**
+     * Implements the multi-hop route search function.
+     * <p>
+     * Like {@link #transaction_search}, but itineraries may have up to
+     * {@code maxLegs} flights, none of them visiting a city twice. They are
+     * sorted by total flight time, then by the fids of their flights in turn,
+     * and can be booked like any other search result.
+     *
+     * @return "No flights match your selection.\n" if there are none, "Failed
+     * to search\n" on errors, otherwise the itineraries in the format of
+     * {@link #transaction_search}.
+     */
+    public String transaction_routes(String originCity, String destinationCity, int dayOfMonth, int maxLegs,
+                                     int numberOfItineraries) {
+        StringBuilder sb = new StringBuilder();
+        itineraries = new HashMap<>();
+        long start = System.nanoTime();
+        long statements = statements();
+        boolean ok = false;
+        try {
+            List<ArrayList<Flight>> found = read(false, reads -> reads.routes(originCity, destinationCity,
+                    dayOfMonth, maxLegs, numberOfItineraries));
+            ok = true;
+            if (found.isEmpty()) return "No flights match your selection.\n";
+            int itineraryID = 0;
+            for (ArrayList<Flight> itinerary : found) {
+                ItineraryRenderer.itinerary(sb, itineraryID, itinerary);
+                itineraries.put(itineraryID, itinerary);
+                itineraryID++;
+            }
+        } catch (SQLException ex) {
+            return "Failed to search\n";
+        } finally {
+            metrics.record("routes", System.nanoTime() - start, statements() - statements, !ok);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Implements the paginated search function.
+     * <p>
+     * Like {@link #transaction_search}, but returns only the first
+     * {@code pageSize} itineraries, in pure Compare order with no preference
+     * for direct flights, followed by a continuation token when there are
+     * more. {@link #transaction_nextPage} reads the pages after it; the
+     * itineraries of every page read can be booked until the next search.
+     *
+     * @return "No flights match your selection.\n" if there are none, "Failed
+     * to search\n" on errors, otherwise the itineraries in the format of
+     * {@link #transaction_search} followed by "Next page: [token]\n" if more
+     * itineraries match.
+     */
+    public String transaction_searchPage(String originCity, String destinationCity, boolean directFlight,
+                                         int dayOfMonth, int pageSize) {
+        if (pageSize <= 0) return "Failed to search\n";
+        itineraries = new HashMap<>();
+        return searchPage(new SearchCursor(originCity, destinationCity, directFlight, dayOfMonth, pageSize, 0,
+                null));
+    }
+
+    /**
+     * Reads the page of a paginated search that a continuation token points
+     * to. Itinerary numbers carry on from the previous page.
+     *
+     * @return "No more flights match your selection.\n" past the last page,
+     * "Failed to search\n" on errors or malformed tokens, otherwise the page
+     * as in {@link #transaction_searchPage}.
+     */
+    public String transaction_nextPage(String token) {
+        SearchCursor cursor = SearchCursor.decode(token);
+        if (cursor == null) return "Failed to search\n";
+        return searchPage(cursor);
+    }
+
+    /*
+     * reads one more itinerary than the page holds to learn whether another page follows; a page of
+     * Integer.MAX_VALUE itineraries already holds every one there can be, so it is the last
+     */
+    private String searchPage(SearchCursor cursor) {
+        StringBuilder sb = new StringBuilder();
+        long start = System.nanoTime();
+        long statements = statements();
+        boolean ok = false;
+        int fetch = cursor.pageSize < Integer.MAX_VALUE ? cursor.pageSize + 1 : cursor.pageSize;
+        try {
+            List<ArrayList<Flight>> found = read(false, reads -> reads.searchAfter(cursor.originCity,
+                    cursor.destinationCity, cursor.directFlight, cursor.dayOfMonth, cursor.after, fetch));
+            ok = true;
+            if (found.isEmpty()) {
+                return cursor.after == null ? "No flights match your selection.\n"
+                        : "No more flights match your selection.\n";
+            }
+            int shown = Math.min(found.size(), cursor.pageSize);
+            for (int i = 0; i < shown; i++) {
+                ItineraryRenderer.itinerary(sb, cursor.firstItinerary + i, found.get(i));
+                itineraries.put(cursor.firstItinerary + i, found.get(i));
+            }
+            if (found.size() > shown) {
+                sb.append("Next page: ").append(cursor.next(Compare.of(found.get(shown - 1))).encode()).append('\n');
+            }
+        } catch (SQLException ex) {
+            return "Failed to search\n";
+        } finally {
+            metrics.record("searchpage", System.nanoTime() - start, statements() - statements, !ok);
+        }
+        return sb.toString();
+    }
 
     /**
      * Implements the book itinerary function.
@@ -406,160 +499,157 @@ public class Query {
     public String transaction_book(int itineraryId) {
         if (!inUse) return "Cannot book reservations, not logged in\n";
         if (!itineraries.containsKey(itineraryId)) return "No such itinerary " + itineraryId + "\n";
-        for (int i = 0; i < MAX_COUNT; i++) { 
-            try {
+        if (coordinator != null) return bookInBatch(itineraries.get(itineraryId));
+        try {
+            return run("book", () -> {
                 ArrayList<Flight> itinerary = itineraries.get(itineraryId);
-                int intFid = 0;
-                int destFid;
-                if (itinerary.size() == 1) {
-                    if (itinerary.get(0).capacity == 0) {
+                for (Flight flight : itinerary) {
+                    if (flight.capacity == 0) {
                         return "Booking failed\n";
                     }
-                    destFid = itinerary.get(0).fid;
-                } else {
-                    if (itinerary.get(0).capacity == 0 || itinerary.get(1).capacity == 0) {   
-                        return "Booking failed\n";
-                    }
-                    intFid = itinerary.get(0).fid;
-                    destFid = itinerary.get(1).fid;
                 }
-                beginTransaction();
-                int day = itinerary.get(0).dayOfMonth;
-                checkDayAvailability.clearParameters();
-                checkDayAvailability.setInt(1, day);
-                checkDayAvailability.setString(2, currUser);
-                ResultSet checkDay = checkDayAvailability.executeQuery();
-                if (checkDay.next()) {
-                    commit();
+                store.begin(TransactionProfile.READ_WRITE);
+                if (store.hasReservationOnDay(currUser, itinerary.get(0).dayOfMonth)) {
+                    store.commit();
                     return "You cannot book two flights in the same day\n";
-                } else {
-                    PreparedStatement checkItinerary;
-                    if (itinerary.size() == 1) {
-                        checkItinerary = conn.prepareStatement("SELECT * FROM Itineraries WHERE " +
-                                "int_fid IS NULL AND dest_fid = ?");
-                        checkItinerary.setInt(1, destFid);
-                    } else {
-                        checkItinerary = conn.prepareStatement("SELECT * FROM Itineraries WHERE " +
-                                "int_fid = ? AND dest_fid = ?");
-                        checkItinerary.setInt(1, intFid);
-                        checkItinerary.setInt(2, destFid);
-                    }
-                    ResultSet checkExist = checkItinerary.executeQuery();
-                    if (checkExist.next()) {
-                        if (isFull(itinerary)) {
-                            commit();
-                            return "Booking failed\n";
-                        }
-                        PreparedStatement updateBookings;
-                        if (itinerary.size() == 1) {
-                            updateBookings = conn.prepareStatement("UPDATE Itineraries SET num_bookings_dest = " +
-                                    "num_bookings_dest + 1 WHERE int_fid IS NULL AND dest_fid = ?");
-                            updateBookings.setInt(1, destFid);
-                        } else {
-                            updateBookings = conn.prepareStatement("UPDATE Itineraries SET num_bookings_int = " +
-                                    "num_bookings_int + 1, num_bookings_dest = num_bookings_dest + 1 WHERE " +
-                                    "int_fid = ? AND dest_fid = ?");
-                            updateBookings.setInt(1, intFid);
-                            updateBookings.setInt(2, destFid);
-                        }
-                        updateBookings.executeUpdate();
-                        updateBookings.close();
-                    } else {
-                        PreparedStatement createItinerary = conn.prepareStatement("INSERT INTO Itineraries VALUES " +
-                                "(?, ?, ?, ?, ?, ?)");
-                        if (itinerary.size() == 1) {
-                            createItinerary.setNull(1, 4);
-                            createItinerary.setInt(2, itinerary.get(0).fid);
-                            createItinerary.setNull(3, 4);
-                            createItinerary.setInt(5, itinerary.get(0).price);
-                        } else {
-                            createItinerary.setInt(1, itinerary.get(0).fid);
-                            createItinerary.setInt(2, itinerary.get(1).fid);
-                            createItinerary.setInt(3, 1);
-                            createItinerary.setInt(5, itinerary.get(0).price + itinerary.get(1).price);
-                        }
-                        createItinerary.setInt(4, 1);
-                        createItinerary.setInt(6, day);
-                        createItinerary.executeUpdate();
-                        createItinerary.close();
-                    }
-                    PreparedStatement getItineraryID = conn.prepareStatement("SELECT TOP 1 id FROM " +
-                            "Itineraries ORDER BY id DESC");
-                    ResultSet id = getItineraryID.executeQuery();
-                    int i_id = 0;
-                    if (id.next()) {
-                        i_id = id.getInt("id");
-                    }
-                    PreparedStatement createReservation = conn.prepareStatement("INSERT INTO Reservations VALUES " +
-                            "(? , ? , ?)");
-                    createReservation.setString(1, currUser);
-                    createReservation.setInt(2, 0);
-                    createReservation.setInt(3, i_id);
-                    createReservation.executeUpdate();
-                    PreparedStatement getResID = conn.prepareStatement("SELECT res_id FROM Reservations WHERE " +
-                            "username = ? AND i_id = ?");
-                    getResID.setString(1, currUser);
-                    getResID.setInt(2, i_id);
-                    ResultSet rID = getResID.executeQuery();
-                    int resID = 0;
-                    if (rID.next()) {
-                        resID = rID.getInt("res_id");
-                    }
-                    checkItinerary.close();
-                    getItineraryID.close();
-                    createReservation.close();
-                    getResID.close();
-                    commit();
-                    return "Booked flight(s), reservation ID: " + resID + "\n";
                 }
+
+                // take a seat on every leg, or on none of them if one is full
+                if (!store.reserveSeats(itinerary)) {
+                    store.rollback();
+                    return "Booking failed\n";
+                }
+
+                int resID = store.book(currUser, itinerary);
+                store.commit();
+                wrote();
+                invalidateSearches(itinerary);
+                return "Booked flight(s), reservation ID: " + resID + "\n";
+            });
+        } catch (SQLException ex) {
+            return "Booking failed\n";
+        }
+    }
+
+    /*
+     * books through the coordinator and records the wait for the batch as the latency of the
+     * booking; its statements are recorded once per batch, as "bookbatch"
+     */
+    private String bookInBatch(ArrayList<Flight> itinerary) {
+        for (Flight flight : itinerary) {
+            if (flight.capacity == 0) {
+                return "Booking failed\n";
+            }
+        }
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            int resID = coordinator.book(currUser, itinerary);
+            ok = true;
+            if (resID == BookingCoordinator.SAME_DAY) return "You cannot book two flights in the same day\n";
+            if (resID == BookingCoordinator.FULL) return "Booking failed\n";
+            wrote();
+            invalidateSearches(itinerary);
+            return "Booked flight(s), reservation ID: " + resID + "\n";
+        } catch (SQLException ex) {
+            return "Booking failed\n";
+        } finally {
+            metrics.record("book", System.nanoTime() - start, 0, !ok);
+        }
+    }
+
+    /*
+     * runs a transaction under the retry policy and records its latency and statements
+     */
+    private <T> T run(String type, RetryPolicy.Work<T> work) throws SQLException {
+        long start = System.nanoTime();
+        long statements = statements();
+        boolean ok = false;
+        try {
+            T result = retry.run(type, work, this::rollback);
+            ok = true;
+            return result;
+        } finally {
+            metrics.record(type, System.nanoTime() - start, statements() - statements, !ok);
+        }
+    }
+
+    /*
+     * runs read-only work on the replica when the router allows it, and on the primary otherwise or
+     * if the replica fails; work that reads the user's own rows also needs the replica to have this
+     * session's writes
+     */
+    private <T> T read(boolean ownRows, Read<T> work) throws SQLException {
+        if (replica != null && router.fresh()
+                && (!ownRows || replicaReservations && (!wrote || router.hasApplied(lastWrite)))) {
+            try {
+                return work.run(replica);
             } catch (SQLException ex) {
                 try {
-                    rollback();
+                    replica.rollback();
                 } catch (SQLException ex2) {
-                    // unnable to complete
+                    // the connection is released either way
                 }
+                router.failed();
             }
         }
-        return "Booking failed\n";
+        return work.run(store);
     }
 
     /*
-     * checks if an Itinerary is fully booked
-     */
-    private boolean isFull(ArrayList<Flight> itinerary) throws SQLException {
-        PreparedStatement bookingCount;
-        if (itinerary.size() == 1) {
-            int fid = itinerary.get(0).fid;
-            int flightCapacity = checkFlightCapacity(fid);
-            bookingCount = conn.prepareStatement("SELECT * FROM Itineraries WHERE " +
-                    "int_fid is NULL AND dest_fid = ?");
-            bookingCount.setInt(1, fid);
-            ResultSet results = bookingCount.executeQuery();
-            int numBookings = 0;
-            while (results.next()) {
-                numBookings = results.getInt("num_bookings_dest");
-            }
-            bookingCount.close();
-            return numBookings == flightCapacity;
-        } else {
-            int intFid = itinerary.get(0).fid;
-            int destFid = itinerary.get(1).fid;
-            int intFlightCapacity = checkFlightCapacity(intFid);
-            int destFlightCapacity = checkFlightCapacity(destFid);
-            bookingCount = conn.prepareStatement("SELECT * FROM Itineraries WHERE " +
-                    "int_fid = ? AND dest_fid = ?");
-            bookingCount.setInt(1, intFid);
-            bookingCount.setInt(2, destFid);
-            ResultSet results = bookingCount.executeQuery();
-            int numIntBookings = 0;
-            int numDestBookings = 0;
-            while (results.next()) {
-                numIntBookings = results.getInt(4);
-                numDestBookings = results.getInt(5);
-            }
-            bookingCount.close();
-            return numIntBookings == intFlightCapacity || numDestBookings == destFlightCapacity;
+     * read-only work against one of the session's stores
+     */
+    private interface Read<T> {
+        T run(FlightStore reads) throws SQLException;
+    }
+
+    /*
+     * notes that a write of this session has just committed, for reads of its own rows
+     */
+    private void wrote() {
+        wrote = true;
+        lastWrite = System.nanoTime();
+    }
+
+    /*
+     * undoes the current transaction on either store
+     */
+    private void rollback() throws SQLException {
+        store.rollback();
+        if (replica != null) {
+            replica.rollback();
+        }
+    }
+
+    /*
+     * statements sent by this session to either store
+     */
+    private long statements() {
+        return store.statements() + (replica != null ? replica.statements() : 0);
+    }
+
+    /*
+     * hashes a password on the shared pool and records how long it took, queueing included
+     */
+    private byte[] hash(String password, byte[] salt) {
+        long start = System.nanoTime();
+        try {
+            return hasher.hash(password, salt);
+        } finally {
+            metrics.recordHash(System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * drops cached searches that include a flight of the given itinerary
+     */
+    private void invalidateSearches(List<Flight> itinerary) {
+        if (searchCache == null) return;
+        int[] fids = new int[itinerary.size()];
+        for (int i = 0; i < fids.length; i++) {
+            fids[i] = itinerary.get(i).fid;
         }
+        searchCache.invalidate(fids);
     }
 
     /**
@@ -580,63 +670,32 @@ public class Query {
      */
     public String transaction_pay(int reservationId) {
         if (!inUse) return "Cannot pay, not logged in\n";
-        for (int i = 0; i < MAX_COUNT; i++) { 
-            try {
-                beginTransaction();
-                unpaidReservations.clearParameters();
-                unpaidReservations.setInt(1, reservationId);
-                unpaidReservations.setString(2, currUser);
-                ResultSet unpaid = unpaidReservations.executeQuery();
-                if (!unpaid.next()) {
-                    commit();
+        try {
+            return run("pay", () -> {
+                store.begin(TransactionProfile.READ_WRITE);
+                FlightStore.Reservation reservation = store.getReservationForUpdate(reservationId, currUser);
+                if (reservation == null || reservation.paid) {
+                    store.commit();
                     return "Cannot find unpaid reservation " + reservationId + " under user: " +
                             currUser + "\n";
-                } else {
-                    int cost = 0;
-                    cost = unpaid.getInt("total_price");
-                    int balance = getBalance(currUser);
-                    if (balance >= cost) {
-                        int newBalance = balance - cost;
-                        PreparedStatement updateBalance = conn.prepareStatement("UPDATE Users SET balance = ? WHERE " +
-                                "username = ?");
-                        PreparedStatement setPaid = conn.prepareStatement("UPDATE Reservations SET is_paid = 1 WHERE " +
-                                "res_id = ?");
-                        updateBalance.setInt(1, newBalance);
-                        updateBalance.setString(2, currUser);
-                        setPaid.setInt(1, reservationId);
-                        updateBalance.executeUpdate();
-                        setPaid.executeUpdate();
-                        updateBalance.close();
-                        setPaid.close();
-                        commit();
-                        return "Paid reservation: " + reservationId + " remaining balance: " + newBalance + "\n";
-                    } else {
-                        commit();
-                        return "User has only " + balance + " in account but itinerary costs " + cost + "\n";
-                    }
                 }
-            } catch (SQLException ex) {
-                try {
-                    rollback();
-                } catch (SQLException ex2) {
-                    // unnable to complete
+                int cost = reservation.totalPrice;
+                int balance = store.getBalanceForUpdate(currUser);
+                if (balance >= cost) {
+                    int newBalance = balance - cost;
+                    store.setBalance(currUser, newBalance);
+                    store.setPaid(reservationId);
+                    store.commit();
+                    wrote();
+                    return "Paid reservation: " + reservationId + " remaining balance: " + newBalance + "\n";
+                } else {
+                    store.commit();
+                    return "User has only " + balance + " in account but itinerary costs " + cost + "\n";
                 }
-            }
+            });
+        } catch (SQLException ex) {
+            return "Failed to pay for reservation\n";
         }
-        return "Failed to pay for reservation\n";
-    }
-
-    /*
-     * returns a user's total balance
-     */
-    private int getBalance(String username) throws SQLException {
-        PreparedStatement balance = conn.prepareStatement("SELECT balance FROM Users WHERE username = ?");
-        balance.setString(1, currUser);
-        ResultSet amount = balance.executeQuery();
-        amount.next();
-        int totalBalance = amount.getInt("balance");
-        balance.close();
-        return totalBalance;
     }
 
     /**
@@ -661,77 +720,21 @@ public class Query {
 
     public String transaction_reservations() {
         if (!inUse) return "Cannot view reservations, not logged in\n";
-        StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < MAX_COUNT; i++) {    
-            try {
-                beginTransaction();
-                PreparedStatement reservations = conn.prepareStatement("SELECT * FROM Reservations WHERE username = ?");
-                reservations.setString(1, currUser);
-                ResultSet results = reservations.executeQuery();
-                while (results.next()) {
-                    int resId = results.getInt("res_id");
-                    int paid = results.getInt("is_paid");
-                    int itineraryID = results.getInt("i_id");
-                    sb.append("Reservation " + resId + " paid: " + (paid == 1) + ":\n");
-
-                    getItineraryData.clearParameters();
-                    getItineraryData.setInt(1, itineraryID);
-                    ResultSet flightData = getItineraryData.executeQuery();
-                    flightData.next();
-                    int intFid = flightData.getInt("int_fid");
-                    int destFid = flightData.getInt("dest_fid");
-                    if (intFid == 0) {
-                        Flight dFlight = getFlight(destFid);
-                        sb.append("ID: " + dFlight.fid + " Day: " + dFlight.dayOfMonth + " Carrier: " + dFlight.carrierId
-                                + " Number: " + dFlight.flightNum + " Origin: " + dFlight.originCity + " Dest: "
-                                + dFlight.destCity + " Duration: " + dFlight.time + " Capacity: " + dFlight.capacity
-                                + " Price: " + dFlight.price + "\n");
-                    } else {
-                        Flight intFlight = getFlight(intFid);
-                        Flight destFlight = getFlight(destFid);
-                        sb.append("ID: " + intFlight.fid + " Day: " + intFlight.dayOfMonth + " Carrier: " +
-                                intFlight.carrierId + " Number: " + intFlight.flightNum + " Origin: " +
-                                intFlight.originCity + " Dest: " + intFlight.destCity + " Duration: " + intFlight.time
-                                + " Capacity: " + intFlight.capacity + " Price: " + intFlight.price + "\n");
-                        sb.append("ID: " + destFlight.fid + " Day: " + destFlight.dayOfMonth + " Carrier: " +
-                                destFlight.carrierId + " Number: " + destFlight.flightNum + " Origin: " +
-                                destFlight.originCity + " Dest: " + destFlight.destCity + " Duration: " + destFlight.time
-                                + " Capacity: " + destFlight.capacity + " Price: " + destFlight.price + "\n");
-                    }
+        try {
+            return run("reservations", () -> read(true, reads -> {
+                StringBuilder sb = new StringBuilder();
+                reads.begin(TransactionProfile.READ_ONLY);
+                for (FlightStore.Reservation reservation : reads.getReservations(currUser)) {
+                    ItineraryRenderer.reservation(sb, reservation.id, reservation.paid, reservation.flights);
                 }
-                reservations.close();
-                commit();
+                reads.commit();
                 if (sb.length() != 0) {
                     return sb.toString();
                 } else return "No reservations found\n";
-            } catch (SQLException ex) {
-                try {
-                    rollback();
-                } catch (SQLException ex2) {
-                    // unnable to complete
-                }
-            }
+            }));
+        } catch (SQLException ex) {
+            return "Failed to retrieve reservations\n";
         }
-        return "Failed to retrieve reservations\n";
-    }
-
-    /**
-     * Returns a Flight object based on a given fid
-     */
-    private Flight getFlight(int fid) throws SQLException {
-        getFlight.clearParameters();
-        getFlight.setInt(1, fid);
-        ResultSet flight = getFlight.executeQuery();
-        flight.next();
-        int dayOfMonth = flight.getInt("day_of_month");
-        String carrierID = flight.getString("carrier_id");
-        String flightNum = flight.getString("flight_num");
-        String originCity = flight.getString("origin_city");
-        String destCity = flight.getString("dest_city");
-        int time = flight.getInt("actual_time");
-        int capacity = flight.getInt("capacity");
-        int price = flight.getInt("price");
-        return new Flight(fid, dayOfMonth, carrierID, flightNum, originCity, destCity, time, capacity, price);
     }
 
     /**
@@ -749,127 +752,26 @@ public class Query {
      */
     public String transaction_cancel(int reservationId) {
         if (!inUse) return "Cannot cancel reservations, not logged in\n";
-        for (int i = 0; i < MAX_COUNT; i++) {
-            try {
-                beginTransaction();
-                PreparedStatement getRefund = conn.prepareStatement("SELECT I.id, I.total_price, I.int_fid, I.dest_fid " +
-                        "FROM Reservations AS R, Itineraries AS I WHERE R.res_id = ? AND R.username = ? " +
-                        "AND I.id = R.i_id");
-                getRefund.setInt(1, reservationId);
-                getRefund.setString(2, currUser);
-                ResultSet refund = getRefund.executeQuery();
-                if (!refund.next()) {
-                    commit();
+        try {
+            return run("cancel", () -> {
+                store.begin(TransactionProfile.READ_WRITE);
+                FlightStore.Reservation reservation = store.getReservationForUpdate(reservationId, currUser);
+                if (reservation == null) {
+                    store.commit();
                     return "Failed to cancel reservation " + reservationId + "\n";
                 }
-                int price = refund.getInt("total_price");
-                int ID = refund.getInt("id");
-                int intFid = refund.getInt("int_fid");
-                PreparedStatement updateBookings;
-                if (intFid == 0) {
-                    updateBookings = conn.prepareStatement("UPDATE Itineraries SET num_bookings_dest = num_bookings_dest " +
-                            "- 1 WHERE id = ?");
-                } else {
-                    updateBookings = conn.prepareStatement("UPDATE Itineraries SET num_bookings_int = num_bookings_int - 1"
-                            + ", num_bookings_dest = num_bookings_dest - 1 WHERE id = ?");
+                store.releaseSeats(reservation);
+                store.addBalance(currUser, reservation.totalPrice);
+                store.deleteReservation(reservationId);
+                store.commit();
+                wrote();
+                if (searchCache != null) {
+                    searchCache.invalidate(reservation.fids);
                 }
-                updateBookings.setInt(1, ID);
-                updateBookings.executeUpdate();
-
-                PreparedStatement pay = conn.prepareStatement("UPDATE Users SET balance = balance + ? WHERE username = ?");
-                pay.setInt(1, price);
-                pay.setString(2, currUser);
-                pay.executeUpdate();
-
-                PreparedStatement removeReservation = conn.prepareStatement("DELETE FROM Reservations WHERE res_id = ? ");
-                removeReservation.setInt(1, reservationId);
-                removeReservation.executeUpdate();
-
-                updateBookings.close();
-                pay.close();
-                removeReservation.close();
-                getRefund.close();
-                
-                commit();
                 return "Canceled reservation " + reservationId + "\n";
-            } catch (SQLException ex) {
-                try {
-                    rollback();
-                } catch (SQLException ex2) {
-                    // unnable to complete
-                }
-            }
+            });
+        } catch (SQLException ex) {
+            return "Failed to cancel reservation\n";
         }
-        return "Failed to cancel reservation\n";
-    }
-
-    /**
-     * Example utility function that uses prepared statements
-     */
-    private int checkFlightCapacity(int fid) throws SQLException {
-        checkFlightCapacityStatement.clearParameters();
-        checkFlightCapacityStatement.setInt(1, fid);
-        ResultSet results = checkFlightCapacityStatement.executeQuery();
-        results.next();
-        return results.getInt("capacity");
     }
 }
-
-/**
- * A class to store flight information.
- */
-class Flight {
-    public int fid;
-    public int dayOfMonth;
-    public String carrierId;
-    public String flightNum;
-    public String originCity;
-    public String destCity;
-    public int time;
-    public int capacity;
-    public int price;
-
-    public Flight(int fid, int dayOfMonth, String carrierId, String flightNum, String originCity,
-                  String destCity, int time, int capacity, int price) {
-        this.fid = fid;
-        this.dayOfMonth = dayOfMonth;
-        this.carrierId = carrierId;
-        this.flightNum = flightNum;
-        this.originCity = originCity;
-        this.destCity = destCity;
-        this.time = time;
-        this.capacity = capacity;
-        this.price = price;
-    }
-
-    @Override
-    public String toString() {
-        return "ID: " + fid + " Day: " + dayOfMonth + " Carrier: " + carrierId + " Number: " + flightNum + " Origin: "
-                + originCity + " Dest: " + destCity + " Duration: " + time + " Capacity: " + capacity + " Price: " + price;
-    }
-}
-
-/*
- * Object used to compare Itineraries, sorts first by time, then by first fid, then second fid
- */
-class Compare implements Comparable<Compare> {
-    public int totalTime;
-    public int fid;
-    public int fid_2;
-
-    public Compare(int totalTime, int fid, int fid_2) {
-        this.totalTime = totalTime;
-        this.fid = fid;
-        this.fid_2 = fid_2;
-    }
-
-    public int compareTo(Compare other) {
-        if (this.totalTime != other.totalTime) {
-            return Integer.compare(this.totalTime, other.totalTime);
-        } else if (this.fid != other.fid) {
-            return Integer.compare(this.fid, other.fid);
-        } else return Integer.compare(this.fid_2, other.fid_2);
-    }
-}
-
-
@@ -0,0 +1,202 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Decides whether read-only transactions may go to the read replica.
+ * <p>
+ * The replica is the database named by the {@code flightservice.replica.*}
+ * settings, each of which defaults to the primary's {@code hw1.*} one, so two
+ * local instances only need a different port or database name. Its lag is
+ * measured without trusting either server's clock: a background thread bumps
+ * the sequence number of the ReplicaHeartbeat row on the primary every
+ * {@code flightservice.replica.heartbeat_ms}, remembering when it sent each
+ * bump, and reads back the sequence number the replica has applied. Every
+ * write committed before that bump was sent is on the replica too, so reads
+ * go there while that moment is no older than
+ * {@code flightservice.replica.max_staleness_ms}, and a session's own writes
+ * are visible there once a bump sent after them has arrived. A negative bound
+ * accepts any staleness and sends no heartbeats, for a replica that is a
+ * restored copy rather than a replication target; sessions that have written
+ * then read their own rows from the primary.
+ * <p>
+ * A replica that fails a read is skipped for one heartbeat interval.
+ */
+final class ReplicaRouter {
+    private static final String BEAT = "UPDATE ReplicaHeartbeat SET seq = seq + 1, beat = SYSUTCDATETIME() " +
+            "OUTPUT INSERTED.seq WHERE id = 1";
+    private static final String APPLIED = "SELECT seq FROM ReplicaHeartbeat WHERE id = 1";
+    // heartbeats remembered; older ones can no longer tell how fresh the replica is
+    private static final int SENT = 256;
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    private static final String[] CONNECTION_SETTINGS = {"server_url", "port", "database_name", "username",
+            "password"};
+
+    // shared instance, configured by the first session that opens a connection
+    private static ReplicaRouter shared;
+
+    private final String primaryUrl;
+    private final String replicaUrl;
+    private final long maxStalenessNanos;
+    private final long heartbeatNanos;
+
+    // ring of this process's heartbeats: sequence number and System.nanoTime() before it was sent
+    private final long[] sentSeq = new long[SENT];
+    private final long[] sentAt = new long[SENT];
+    // nanoTime by which every commit on the primary had reached the replica, or UNKNOWN
+    private volatile long appliedAt = UNKNOWN;
+    // nanoTime before which the replica is skipped after a failed read
+    private volatile long downUntil;
+
+    // connections of the heartbeat thread, reopened after a failure
+    private Connection primary;
+    private Connection replica;
+
+    /**
+     * Whether {@code flightservice.replica.server_url} names a replica
+     */
+    static boolean enabled(Properties configProps) {
+        return configProps.getProperty("flightservice.replica.server_url") != null;
+    }
+
+    /**
+     * Returns the process-wide router, creating it from the
+     * {@code flightservice.replica.*} settings in {@code configProps} on first
+     * use.
+     */
+    static synchronized ReplicaRouter shared(Properties configProps) {
+        if (shared == null) {
+            shared = new ReplicaRouter(JdbcFlightStore.connectionUrl(configProps),
+                    JdbcFlightStore.connectionUrl(replicaProps(configProps)),
+                    Long.parseLong(configProps.getProperty("flightservice.replica.max_staleness_ms", "5000")),
+                    Long.parseLong(configProps.getProperty("flightservice.replica.heartbeat_ms", "500")));
+        }
+        return shared;
+    }
+
+    /**
+     * The settings of a store on the replica: the primary's, with the
+     * connection settings of the replica and no schema migrations
+     */
+    static Properties replicaProps(Properties configProps) {
+        Properties replicaProps = new Properties();
+        replicaProps.putAll(configProps);
+        for (String setting : CONNECTION_SETTINGS) {
+            String value = configProps.getProperty("flightservice.replica." + setting);
+            if (value != null) replicaProps.setProperty("hw1." + setting, value);
+        }
+        replicaProps.remove("flightservice.schema.migrate");
+        return replicaProps;
+    }
+
+    ReplicaRouter(String primaryUrl, String replicaUrl, long maxStalenessMillis, long heartbeatMillis) {
+        this.primaryUrl = primaryUrl;
+        this.replicaUrl = replicaUrl;
+        this.maxStalenessNanos = maxStalenessMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        if (maxStalenessNanos >= 0) {
+            ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "replica-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            heartbeat.scheduleWithFixedDelay(this::beat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Whether a read may go to the replica now
+     */
+    boolean fresh() {
+        long now = System.nanoTime();
+        if (now - downUntil < 0) return false;
+        if (maxStalenessNanos < 0) return true;
+        long applied = appliedAt;
+        return applied != UNKNOWN && now - applied <= maxStalenessNanos;
+    }
+
+    /**
+     * Whether the replica is known to have every write committed on the
+     * primary before the given {@link System#nanoTime()}
+     */
+    boolean hasApplied(long committedAt) {
+        long applied = appliedAt;
+        return applied != UNKNOWN && applied - committedAt >= 0;
+    }
+
+    /**
+     * Skips the replica for one heartbeat interval after a failed read
+     */
+    void failed() {
+        downUntil = System.nanoTime() + heartbeatNanos;
+    }
+
+    /**
+     * How long ago, in milliseconds, the replica was last known to be in step
+     * with the primary, or -1 if that is not known
+     */
+    long lagMillis() {
+        long applied = appliedAt;
+        return applied == UNKNOWN ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - applied);
+    }
+
+    /*
+     * sends one heartbeat to the primary and reads back the last one the replica has applied
+     */
+    private void beat() {
+        try {
+            if (primary == null) primary = DriverManager.getConnection(primaryUrl);
+            long sent = System.nanoTime();
+            try (Statement statement = primary.createStatement();
+                 ResultSet seq = statement.executeQuery(BEAT)) {
+                if (seq.next()) sent(seq.getLong(1), sent);
+            }
+        } catch (SQLException ex) {
+            primary = close(primary);
+        }
+        try {
+            if (replica == null) replica = DriverManager.getConnection(replicaUrl);
+            try (Statement statement = replica.createStatement();
+                 ResultSet seq = statement.executeQuery(APPLIED)) {
+                if (seq.next()) applied(seq.getLong(1));
+            }
+        } catch (SQLException ex) {
+            // the replica ages past the staleness bound while it cannot be read
+            replica = close(replica);
+        }
+    }
+
+    private synchronized void sent(long seq, long nanos) {
+        int slot = (int) (seq % SENT);
+        sentSeq[slot] = seq;
+        sentAt[slot] = nanos;
+    }
+
+    /*
+     * sequence numbers grow in commit order, so a replica that shows seq has applied every heartbeat
+     * up to it, including this process's latest one at or below it
+     */
+    private synchronized void applied(long seq) {
+        long best = 0;
+        long at = UNKNOWN;
+        for (int slot = 0; slot < SENT; slot++) {
+            if (sentSeq[slot] != 0 && sentSeq[slot] <= seq && sentSeq[slot] > best) {
+                best = sentSeq[slot];
+                at = sentAt[slot];
+            }
+        }
+        if (at != UNKNOWN && (appliedAt == UNKNOWN || at - appliedAt > 0)) appliedAt = at;
+    }
+
+    private static Connection close(Connection conn) {
+        if (conn == null) return null;
+        try {
+            conn.close();
+        } catch (SQLException ex) {
+            // already broken
+        }
+        return null;
+    }
+}
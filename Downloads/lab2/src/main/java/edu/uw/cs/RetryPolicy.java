@@ -0,0 +1,193 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared retry engine for the transaction methods in Query.
+ * <p>
+ * Only contention failures are retried: deadlock victims (SQL Server error
+ * 1205), lock request timeouts (1222), snapshot update conflicts (3960) and
+ * anything the driver reports as a serialization failure or transient error.
+ * Everything else, such as duplicate keys or bad SQL, fails on the first
+ * attempt. Retries back off exponentially with full jitter and stop after
+ * either the attempt limit or the deadline, whichever comes first.
+ */
+class RetryPolicy {
+    private static final int DEADLOCK_VICTIM = 1205;
+    private static final int LOCK_TIMEOUT = 1222;
+    private static final int SNAPSHOT_CONFLICT = 3960;
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    // shared instance, configured by the first session that opens a connection
+    private static RetryPolicy shared;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * A unit of work that is rolled back and rerun when it fails with a
+     * retryable error
+     */
+    interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Undoes a failed attempt before it is retried or given up on
+     */
+    interface Rollback {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Returns the process-wide policy, creating it from the
+     * {@code flightservice.retry.*} settings in {@code configProps} on first use.
+     */
+    static synchronized RetryPolicy shared(Properties configProps) {
+        if (shared == null) {
+            shared = new RetryPolicy(
+                    Integer.parseInt(configProps.getProperty("flightservice.retry.max_attempts", "10")),
+                    Long.parseLong(configProps.getProperty("flightservice.retry.base_delay_ms", "5")),
+                    Long.parseLong(configProps.getProperty("flightservice.retry.max_delay_ms", "250")),
+                    Long.parseLong(configProps.getProperty("flightservice.retry.deadline_ms", "5000")));
+        }
+        return shared;
+    }
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Runs the work, rolling back and retrying it while it fails with a
+     * retryable error.
+     *
+     * @param type     transaction type the retry counts are recorded under
+     * @param work     the transaction to run
+     * @param rollback undoes a failed attempt
+     * @return the result of the first successful attempt
+     * @throws SQLException the last error once the work failed permanently or
+     *                      ran out of attempts or time
+     */
+    <T> T run(String type, Work<T> work, Rollback rollback) throws SQLException {
+        Stats counts = stats.computeIfAbsent(type, k -> new Stats());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        for (int attempt = 1; ; attempt++) {
+            counts.attempts.incrementAndGet();
+            try {
+                return work.run();
+            } catch (SQLException ex) {
+                counts.rolledBack(ex);
+                try {
+                    rollback.run();
+                } catch (SQLException ex2) {
+                    // the connection is released either way
+                }
+                if (!isRetryable(ex)) {
+                    counts.permanentFailures.incrementAndGet();
+                    throw ex;
+                }
+                long delay = backoffMillis(attempt);
+                if (attempt >= maxAttempts
+                        || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) > deadline) {
+                    counts.exhausted.incrementAndGet();
+                    throw ex;
+                }
+                counts.retries.incrementAndGet();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the error is a contention failure that a rerun can fix
+     */
+    static boolean isRetryable(SQLException ex) {
+        for (SQLException e = ex; e != null; e = e.getNextException()) {
+            if (e instanceof SQLTransactionRollbackException || e instanceof SQLTransientException) return true;
+            int code = e.getErrorCode();
+            if (code == DEADLOCK_VICTIM || code == LOCK_TIMEOUT || code == SNAPSHOT_CONFLICT) return true;
+            if (SERIALIZATION_FAILURE.equals(e.getSQLState())) return true;
+        }
+        return false;
+    }
+
+    /*
+     * exponential backoff capped at maxDelayMillis, with full jitter
+     */
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Live counters of one transaction type, or null before its first run
+     */
+    Stats stats(String type) {
+        return stats.get(type);
+    }
+
+    /**
+     * Snapshot of the per-transaction-type counters
+     */
+    Map<String, Stats> stats() {
+        return new TreeMap<>(stats);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("RetryPolicy[");
+        for (Map.Entry<String, Stats> entry : stats().entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append(' ');
+        }
+        return sb.toString().trim() + "]";
+    }
+
+    /**
+     * Retry counters of a single transaction type
+     */
+    static final class Stats {
+        final AtomicLong attempts = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong exhausted = new AtomicLong();
+        final AtomicLong permanentFailures = new AtomicLong();
+        // failed attempts, each of which was rolled back, by the SQLState of the error
+        private final Map<String, AtomicLong> rollbacks = new ConcurrentHashMap<>();
+
+        void rolledBack(SQLException ex) {
+            String state = ex.getSQLState() != null ? ex.getSQLState() : "none";
+            rollbacks.computeIfAbsent(state, k -> new AtomicLong()).incrementAndGet();
+        }
+
+        /**
+         * Rolled back attempts by SQLState, "none" when the error had none
+         */
+        Map<String, Long> rollbacksBySqlState() {
+            Map<String, Long> snapshot = new TreeMap<>();
+            for (Map.Entry<String, AtomicLong> entry : rollbacks.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().get());
+            }
+            return snapshot;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{attempts=%d retries=%d exhausted=%d permanent=%d rollbacks=%s}",
+                    attempts.get(), retries.get(), exhausted.get(), permanentFailures.get(), rollbacksBySqlState());
+        }
+    }
+}
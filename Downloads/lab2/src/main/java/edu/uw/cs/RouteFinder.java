@@ -0,0 +1,196 @@
+package edu.uw.cs;
+
+import java.util.*;
+
+/**
+ * Finds the K fastest itineraries of up to N legs between two cities over the
+ * flight graph of one day.
+ * <p>
+ * The Flights table has no departure times, so the graph is the one the
+ * one-stop search already uses: cities connected by the flights of a single
+ * day, weighted by flight time. Routes never visit a city twice.
+ * <p>
+ * The search is a best-first enumeration of partial routes in the spirit of
+ * Eppstein's algorithm. A reverse Dijkstra from the destination gives each
+ * city its fastest remaining time and fewest remaining legs; a partial route
+ * is ordered by its time so far plus that lower bound, then by its fids, and
+ * is dropped as soon as it cannot reach the destination within the leg limit.
+ * Complete routes therefore come off the heap in {@link Compare#compare}
+ * order, extended to any number of legs, and the search stops after K of
+ * them. Parallel flights between two cities are pushed one at a time, the
+ * next only once the previous one is taken, so a city pair served by many
+ * flights costs a single heap entry until it matters.
+ */
+final class RouteFinder {
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    // origin -> destination -> flights sorted by (time, fid), all of one day
+    private final Map<String, Map<String, List<Flight>>> graph;
+
+    /**
+     * @param graph the flights of one day by origin and then destination
+     *              city key, each list sorted by time and then fid
+     */
+    RouteFinder(Map<String, Map<String, List<Flight>>> graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Returns up to {@code limit} routes of at most {@code maxLegs} flights
+     * between the two city keys, fastest first, ties broken by their fids
+     */
+    List<List<Flight>> find(String origin, String destination, int maxLegs, int limit) {
+        List<List<Flight>> routes = new ArrayList<>();
+        if (limit <= 0 || maxLegs <= 0 || origin.equals(destination)) return routes;
+        Map<String, int[]> remaining = remaining(destination);
+        int[] start = remaining.get(origin);
+        if (start == null || start[1] > maxLegs) return routes;
+
+        PriorityQueue<Route> open = new PriorityQueue<>();
+        push(open, null, origin, maxLegs, remaining);
+        while (!open.isEmpty() && routes.size() < limit) {
+            Route route = open.poll();
+            // the next of its parallel flights is the best route this one did not take
+            if (route.sibling + 1 < route.flights.size()) {
+                open.add(new Route(route.previous, route.flights, route.sibling + 1, route.city,
+                        route.bound - route.time));
+            }
+            if (route.city.equals(destination)) {
+                routes.add(route.legs());
+            } else if (route.length < maxLegs) {
+                push(open, route, origin, maxLegs, remaining);
+            }
+        }
+        return routes;
+    }
+
+    /*
+     * extends a route, or starts one from the origin when previous is null, with the fastest flight
+     * to every city it has not visited yet and from which the destination is still within reach
+     */
+    private void push(PriorityQueue<Route> open, Route previous, String origin, int maxLegs,
+                      Map<String, int[]> remaining) {
+        Map<String, List<Flight>> out = graph.get(previous == null ? origin : previous.city);
+        if (out == null) return;
+        int legsLeft = maxLegs - (previous == null ? 0 : previous.length) - 1;
+        for (Map.Entry<String, List<Flight>> next : out.entrySet()) {
+            String city = next.getKey();
+            int[] toGo = remaining.get(city);
+            if (toGo == null || toGo[1] > legsLeft || next.getValue().isEmpty()) continue;
+            if (city.equals(origin) || previous != null && previous.visits(city)) continue;
+            open.add(new Route(previous, next.getValue(), 0, city, toGo[0]));
+        }
+    }
+
+    /*
+     * fastest time and fewest legs from every city to the destination, by Dijkstra over reversed
+     * flights; cities that cannot reach it are missing
+     */
+    private Map<String, int[]> remaining(String destination) {
+        Map<String, Map<String, Integer>> reverse = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<Flight>>> from : graph.entrySet()) {
+            for (Map.Entry<String, List<Flight>> to : from.getValue().entrySet()) {
+                if (to.getValue().isEmpty()) continue;
+                // lists are sorted, so the first flight is the fastest
+                reverse.computeIfAbsent(to.getKey(), k -> new HashMap<>())
+                        .put(from.getKey(), to.getValue().get(0).time);
+            }
+        }
+        // {fastest time, fewest legs} by city
+        Map<String, int[]> best = new HashMap<>();
+        best.put(destination, new int[]{0, 0});
+        // cities by the time they were queued with; stale entries are skipped when polled
+        PriorityQueue<Map.Entry<Integer, String>> queue = new PriorityQueue<>(Map.Entry.comparingByKey());
+        queue.add(new AbstractMap.SimpleImmutableEntry<>(0, destination));
+        Set<String> settled = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String city = queue.poll().getValue();
+            if (!settled.add(city)) continue;
+            int time = best.get(city)[0];
+            Map<String, Integer> into = reverse.get(city);
+            if (into == null) continue;
+            for (Map.Entry<String, Integer> edge : into.entrySet()) {
+                int candidate = time + edge.getValue();
+                int[] known = best.get(edge.getKey());
+                if (known == null) {
+                    best.put(edge.getKey(), new int[]{candidate, UNREACHABLE});
+                } else if (candidate < known[0]) {
+                    known[0] = candidate;
+                } else {
+                    continue;
+                }
+                queue.add(new AbstractMap.SimpleImmutableEntry<>(candidate, edge.getKey()));
+            }
+        }
+        // fewest legs, by breadth-first search over the same reversed edges
+        Deque<String> frontier = new ArrayDeque<>();
+        frontier.add(destination);
+        while (!frontier.isEmpty()) {
+            String city = frontier.poll();
+            int legs = best.get(city)[1];
+            Map<String, Integer> into = reverse.get(city);
+            if (into == null) continue;
+            for (String from : into.keySet()) {
+                int[] known = best.get(from);
+                if (known[1] == UNREACHABLE) {
+                    known[1] = legs + 1;
+                    frontier.add(from);
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+     * a partial route: the route before it, plus one of the parallel flights from its last city to
+     * the next, ordered by a lower bound of its total time and then by its fids
+     */
+    private static final class Route implements Comparable<Route> {
+        final Route previous;
+        final List<Flight> flights;
+        final int sibling;
+        final String city;
+        final int length;
+        final int time;
+        final int bound;
+        final int[] fids;
+
+        Route(Route previous, List<Flight> flights, int sibling, String city, int remaining) {
+            this.previous = previous;
+            this.flights = flights;
+            this.sibling = sibling;
+            this.city = city;
+            Flight leg = flights.get(sibling);
+            this.length = previous == null ? 1 : previous.length + 1;
+            this.time = (previous == null ? 0 : previous.time) + leg.time;
+            this.bound = time + remaining;
+            this.fids = previous == null ? new int[1] : Arrays.copyOf(previous.fids, length);
+            this.fids[length - 1] = leg.fid;
+        }
+
+        boolean visits(String other) {
+            for (Route route = this; route != null; route = route.previous) {
+                if (route.city.equals(other)) return true;
+            }
+            return false;
+        }
+
+        List<Flight> legs() {
+            Flight[] legs = new Flight[length];
+            for (Route route = this; route != null; route = route.previous) {
+                legs[route.length - 1] = route.flights.get(route.sibling);
+            }
+            return Arrays.asList(legs);
+        }
+
+        @Override
+        public int compareTo(Route other) {
+            if (bound != other.bound) return Integer.compare(bound, other.bound);
+            // a prefix sorts before the routes that extend it, as a missing fid compares as 0
+            for (int i = 0; i < Math.min(fids.length, other.fids.length); i++) {
+                if (fids[i] != other.fids[i]) return Integer.compare(fids[i], other.fids[i]);
+            }
+            return Integer.compare(fids.length, other.fids.length);
+        }
+    }
+}
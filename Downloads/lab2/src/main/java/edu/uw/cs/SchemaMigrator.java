@@ -0,0 +1,191 @@
+package edu.uw.cs;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Versioned changes to the schema of createTables.sql.
+ * <p>
+ * Each migration has a version and one or more T-SQL batches, and runs in a
+ * transaction of its own together with the row that records it in the
+ * SchemaVersion table, so a failed migration leaves nothing behind and is
+ * tried again next time. An application lock keeps two processes from
+ * applying the same migration. Migrations are only ever appended; a released
+ * one is never edited.
+ * <p>
+ * Run the class to bring the database of dbconn.properties up to date, or set
+ * {@code flightservice.schema.migrate} to have the first session of a
+ * process do it.
+ */
+class SchemaMigrator {
+    private static final String CREATE_VERSION_TABLE = "IF OBJECT_ID('SchemaVersion') IS NULL\n" +
+            "CREATE TABLE SchemaVersion (\n" +
+            "    version INTEGER PRIMARY KEY,\n" +
+            "    description VARCHAR(200) NOT NULL,\n" +
+            "    applied_at DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME()\n" +
+            ");";
+    private static final String LOCK = "EXEC sp_getapplock @Resource = 'flightservice.schema', " +
+            "@LockMode = 'Exclusive', @LockTimeout = 60000";
+    private static final String GET_VERSION = "SELECT version FROM SchemaVersion WHERE version = ?";
+    private static final String RECORD_VERSION = "INSERT INTO SchemaVersion (version, description) VALUES (?, ?)";
+
+    static final List<Migration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+            new Migration(1, "Covering indexes for the per-user and per-itinerary lookups",
+                    // reservations of a user, in res_id order, and the same-day check
+                    "CREATE INDEX IX_Reservations_username ON Reservations (username) INCLUDE (is_paid, i_id);",
+                    // find-or-create of an itinerary by its flights
+                    "CREATE INDEX IX_Itineraries_fids ON Itineraries (dest_fid, int_fid);",
+                    // direct and one-stop searches seek by cities and day and read rows in time order
+                    "CREATE INDEX IX_Flights_route ON Flights (origin_city, dest_city, day_of_month, actual_time, " +
+                            "fid) INCLUDE (carrier_id, flight_num, capacity, price, canceled);"),
+            new Migration(2, "Materialized one-stop connections",
+                    "CREATE TABLE Connections (\n" +
+                            "    day INTEGER NOT NULL,\n" +
+                            "    origin_city VARCHAR(100) NOT NULL,\n" +
+                            "    dest_city VARCHAR(100) NOT NULL,\n" +
+                            "    total_time INTEGER NOT NULL,\n" +
+                            "    fid1 INTEGER NOT NULL,\n" +
+                            "    fid2 INTEGER NOT NULL,\n" +
+                            "    CONSTRAINT PK_Connections PRIMARY KEY (day, origin_city, dest_city, total_time, " +
+                            "fid1, fid2)\n" +
+                            ");\n" +
+                            "CREATE INDEX IX_Connections_fid1 ON Connections (fid1);\n" +
+                            "CREATE INDEX IX_Connections_fid2 ON Connections (fid2);",
+                    "INSERT INTO Connections (day, origin_city, dest_city, total_time, fid1, fid2)\n" +
+                            "SELECT F.day_of_month, F.origin_city, F2.dest_city, F.actual_time + F2.actual_time, " +
+                            "F.fid, F2.fid\n" +
+                            "FROM Flights AS F JOIN Flights AS F2 ON F2.origin_city = F.dest_city " +
+                            "AND F2.day_of_month = F.day_of_month\n" +
+                            "WHERE F.canceled = 0 AND F2.canceled = 0;",
+                    // keeps Connections in step with every insert, update and delete of Flights
+                    "CREATE TRIGGER TR_Flights_Connections ON Flights AFTER INSERT, UPDATE, DELETE AS\n" +
+                            "BEGIN\n" +
+                            "    SET NOCOUNT ON;\n" +
+                            "    DELETE FROM Connections WHERE fid1 IN (SELECT fid FROM deleted);\n" +
+                            "    DELETE FROM Connections WHERE fid2 IN (SELECT fid FROM deleted);\n" +
+                            "    INSERT INTO Connections (day, origin_city, dest_city, total_time, fid1, fid2)\n" +
+                            "    SELECT F.day_of_month, F.origin_city, F2.dest_city, " +
+                            "F.actual_time + F2.actual_time, F.fid, F2.fid\n" +
+                            "    FROM inserted AS F JOIN Flights AS F2 ON F2.origin_city = F.dest_city " +
+                            "AND F2.day_of_month = F.day_of_month\n" +
+                            "    WHERE F.canceled = 0 AND F2.canceled = 0\n" +
+                            "    UNION\n" +
+                            "    SELECT F.day_of_month, F.origin_city, F2.dest_city, " +
+                            "F.actual_time + F2.actual_time, F.fid, F2.fid\n" +
+                            "    FROM Flights AS F JOIN inserted AS F2 ON F2.origin_city = F.dest_city " +
+                            "AND F2.day_of_month = F.day_of_month\n" +
+                            "    WHERE F.canceled = 0 AND F2.canceled = 0;\n" +
+                            "END"),
+            new Migration(3, "Heartbeat row for measuring replica lag",
+                    "CREATE TABLE ReplicaHeartbeat (\n" +
+                            "    id INTEGER PRIMARY KEY CHECK (id = 1),\n" +
+                            "    seq BIGINT NOT NULL,\n" +
+                            "    beat DATETIME2 NOT NULL\n" +
+                            ");\n" +
+                            "INSERT INTO ReplicaHeartbeat (id, seq, beat) VALUES (1, 0, SYSUTCDATETIME());")
+    ));
+
+    // whether this process has already brought its database up to date
+    private static boolean migrated;
+
+    /**
+     * Applies the pending migrations unless this process already has
+     */
+    static synchronized void migrateOnce(Connection conn) throws SQLException {
+        if (migrated) return;
+        migrate(conn);
+        migrated = true;
+    }
+
+    /**
+     * Applies every migration the database does not have yet, in version
+     * order
+     *
+     * @return the versions applied
+     */
+    static List<Integer> migrate(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        List<Integer> applied = new ArrayList<>();
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(CREATE_VERSION_TABLE);
+            conn.setAutoCommit(false);
+            for (Migration migration : MIGRATIONS) {
+                try {
+                    statement.execute(LOCK);
+                    if (!isApplied(conn, migration.version)) {
+                        for (String batch : migration.batches) {
+                            statement.execute(batch);
+                        }
+                        try (PreparedStatement record = conn.prepareStatement(RECORD_VERSION)) {
+                            record.setInt(1, migration.version);
+                            record.setString(2, migration.description);
+                            record.executeUpdate();
+                        }
+                        applied.add(migration.version);
+                    }
+                    conn.commit();
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + migration.version + " failed: " + ex.getMessage(),
+                            ex.getSQLState(), ex.getErrorCode(), ex);
+                }
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return applied;
+    }
+
+    /**
+     * Versions that have not been applied to the database yet
+     */
+    static List<Integer> pending(Connection conn) throws SQLException {
+        List<Integer> pending = new ArrayList<>();
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(CREATE_VERSION_TABLE);
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (!isApplied(conn, migration.version)) pending.add(migration.version);
+        }
+        return pending;
+    }
+
+    private static boolean isApplied(Connection conn, int version) throws SQLException {
+        try (PreparedStatement get = conn.prepareStatement(GET_VERSION)) {
+            get.setInt(1, version);
+            try (ResultSet row = get.executeQuery()) {
+                return row.next();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        Properties configProps = new Properties();
+        try (FileInputStream in = new FileInputStream("dbconn.properties")) {
+            configProps.load(in);
+        }
+        try (Connection conn = DriverManager.getConnection(JdbcFlightStore.connectionUrl(configProps))) {
+            List<Integer> applied = migrate(conn);
+            System.out.println(applied.isEmpty() ? "Schema is up to date"
+                    : "Applied migrations " + applied);
+        }
+    }
+
+    /**
+     * One version of the schema: the batches that bring the previous version
+     * to it
+     */
+    static final class Migration {
+        final int version;
+        final String description;
+        final List<String> batches;
+
+        Migration(int version, String description, String... batches) {
+            this.version = version;
+            this.description = description;
+            this.batches = Collections.unmodifiableList(Arrays.asList(batches));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.uw.cs;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide LRU cache of search results shared by every Query session.
+ * <p>
+ * Entries are keyed on all of the search parameters. A reverse index from fid
+ * to the entries containing that flight lets booking and cancellation drop
+ * every result that mentions a flight whose bookings changed, so a cached
+ * search never outlives a change to one of its flights.
+ */
+class SearchCache {
+    // shared instance, sized by the first session that enables it
+    private static SearchCache shared;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, List<ArrayList<Flight>>> entries;
+    private final Map<Integer, Set<Key>> keysByFid = new HashMap<>();
+
+    // bumped on every invalidation so searches that raced a booking are not cached
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Returns the process-wide cache, creating it with the given capacity on
+     * first use.
+     */
+    static synchronized SearchCache shared(int capacity) {
+        if (shared == null) {
+            shared = new SearchCache(capacity);
+        }
+        return shared;
+    }
+
+    SearchCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Current generation; pass it back to {@link #put} so results computed
+     * before a concurrent invalidation are discarded.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Returns the cached itineraries for the key, or null on a miss
+     */
+    synchronized List<ArrayList<Flight>> get(Key key) {
+        List<ArrayList<Flight>> found = entries.get(key);
+        if (found == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return found;
+    }
+
+    /**
+     * Caches the itineraries for the key unless an invalidation happened
+     * since {@code generation} was read.
+     */
+    synchronized void put(Key key, List<ArrayList<Flight>> found, long generation) {
+        if (capacity <= 0 || generation != this.generation) return;
+        List<ArrayList<Flight>> copy = new ArrayList<>(found.size());
+        for (ArrayList<Flight> itinerary : found) {
+            copy.add(itinerary);
+            for (Flight flight : itinerary) {
+                keysByFid.computeIfAbsent(flight.fid, k -> new HashSet<>()).add(key);
+            }
+        }
+        if (entries.put(key, Collections.unmodifiableList(copy)) == null && entries.size() > capacity) {
+            Iterator<Map.Entry<Key, List<ArrayList<Flight>>>> eldest = entries.entrySet().iterator();
+            Map.Entry<Key, List<ArrayList<Flight>>> evicted = eldest.next();
+            eldest.remove();
+            unlink(evicted.getKey(), evicted.getValue());
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops every cached search containing one of the given flights
+     */
+    synchronized void invalidate(int... fids) {
+        generation++;
+        for (int fid : fids) {
+            Set<Key> keys = keysByFid.remove(fid);
+            if (keys == null) continue;
+            for (Key key : keys) {
+                List<ArrayList<Flight>> removed = entries.remove(key);
+                if (removed != null) {
+                    unlink(key, removed);
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached search
+     */
+    synchronized void clear() {
+        generation++;
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+        keysByFid.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    long invalidations() {
+        return invalidations.get();
+    }
+
+    double hitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchCache[size=%d/%d hits=%d misses=%d hitRatio=%.3f evictions=%d invalidations=%d]",
+                size(), capacity, hits(), misses(), hitRatio(), evictions(), invalidations());
+    }
+
+    private void unlink(Key key, List<ArrayList<Flight>> found) {
+        for (ArrayList<Flight> itinerary : found) {
+            for (Flight flight : itinerary) {
+                Set<Key> keys = keysByFid.get(flight.fid);
+                if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                    keysByFid.remove(flight.fid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Search parameters identifying a cached result
+     */
+    static final class Key {
+        final String originCity;
+        final String destinationCity;
+        final boolean directFlight;
+        final int dayOfMonth;
+        final int numberOfItineraries;
+
+        Key(String originCity, String destinationCity, boolean directFlight, int dayOfMonth,
+            int numberOfItineraries) {
+            this.originCity = originCity;
+            this.destinationCity = destinationCity;
+            this.directFlight = directFlight;
+            this.dayOfMonth = dayOfMonth;
+            this.numberOfItineraries = numberOfItineraries;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return directFlight == other.directFlight && dayOfMonth == other.dayOfMonth
+                    && numberOfItineraries == other.numberOfItineraries
+                    && originCity.equals(other.originCity) && destinationCity.equals(other.destinationCity);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = originCity.hashCode();
+            result = 31 * result + destinationCity.hashCode();
+            result = 31 * result + (directFlight ? 1 : 0);
+            result = 31 * result + dayOfMonth;
+            return 31 * result + numberOfItineraries;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.Base64;
+
+/**
+ * Position in a paginated search, handed to the client as an opaque
+ * continuation token.
+ * <p>
+ * A cursor carries the search itself, the page size, the number the next
+ * itinerary gets and the Compare key of the last itinerary already shown. The
+ * next page is a keyset seek past that key, so the server keeps no state
+ * between pages and a token stays valid in any session; pages reflect the
+ * flights as they are when each page is read.
+ */
+final class SearchCursor {
+    private static final int VERSION = 1;
+
+    final String originCity;
+    final String destinationCity;
+    final boolean directFlight;
+    final int dayOfMonth;
+    final int pageSize;
+    // number of the first itinerary of the page
+    final int firstItinerary;
+    // key of the last itinerary of the previous page, null on the first page
+    final Compare after;
+
+    SearchCursor(String originCity, String destinationCity, boolean directFlight, int dayOfMonth, int pageSize,
+                 int firstItinerary, Compare after) {
+        this.originCity = originCity;
+        this.destinationCity = destinationCity;
+        this.directFlight = directFlight;
+        this.dayOfMonth = dayOfMonth;
+        this.pageSize = pageSize;
+        this.firstItinerary = firstItinerary;
+        this.after = after;
+    }
+
+    /**
+     * The cursor of the page after this one, whose last itinerary had the
+     * given key
+     */
+    SearchCursor next(Compare last) {
+        return new SearchCursor(originCity, destinationCity, directFlight, dayOfMonth, pageSize,
+                firstItinerary + pageSize, last);
+    }
+
+    /**
+     * The cursor as a URL-safe token without spaces
+     */
+    String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(originCity);
+            out.writeUTF(destinationCity);
+            out.writeBoolean(directFlight);
+            out.writeInt(dayOfMonth);
+            out.writeInt(pageSize);
+            out.writeInt(firstItinerary);
+            out.writeInt(after.totalTime);
+            out.writeInt(after.fid);
+            out.writeInt(after.fid_2);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Reads a token made by {@link #encode}, or returns null if it is not one
+     */
+    static SearchCursor decode(String token) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Base64.getUrlDecoder().decode(token)))) {
+            if (in.readByte() != VERSION) return null;
+            SearchCursor cursor = new SearchCursor(in.readUTF(), in.readUTF(), in.readBoolean(), in.readInt(),
+                    in.readInt(), in.readInt(), new Compare(in.readInt(), in.readInt(), in.readInt()));
+            // itinerary numbers of the page must fit in an int
+            if (in.read() != -1 || cursor.pageSize <= 0 || cursor.firstItinerary < 0
+                    || cursor.firstItinerary > Integer.MAX_VALUE - cursor.pageSize) return null;
+            return cursor;
+        } catch (IllegalArgumentException | IOException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.uw.cs;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Signed, expiring session tokens that let a returning client log in again
+ * without its password, and so without another PBKDF2 hash.
+ * <p>
+ * A token is the URL-safe Base64 of the username, the time it was issued and
+ * the time it expires, followed by an HMAC-SHA256 of those fields. Checking
+ * one is a single HMAC and a constant-time comparison; it never reads the
+ * database. The key comes from {@code flightservice.session.secret}, in
+ * Base64, so that every server sharing it accepts the tokens of the others;
+ * without it each process makes up a random key and its tokens die with it.
+ * Tokens live {@code flightservice.session.ttl_s} seconds, an hour by default.
+ * <p>
+ * Revoking a user rejects every token issued to them so far. Revocations are
+ * kept in memory only until the tokens they cover have expired anyway, and
+ * are not shared between processes.
+ */
+class SessionTokens {
+    static final String ALGORITHM = "HmacSHA256";
+    static final int DEFAULT_TTL_SECONDS = 3600;
+    private static final int MAC_LENGTH = 32;
+
+    // shared instance, configured by the first session that opens a connection
+    private static SessionTokens shared;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final long ttlMillis;
+    // time of the latest revocation of each user, by lowercased username
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    // tokens issued at or before this time are rejected for every user
+    private volatile long revokedAll;
+
+    /**
+     * Returns the process-wide tokens, created from the
+     * {@code flightservice.session.*} settings in {@code configProps} on first
+     * use.
+     */
+    static synchronized SessionTokens shared(Properties configProps) {
+        if (shared == null) {
+            String secret = configProps.getProperty("flightservice.session.secret");
+            byte[] key;
+            if (secret != null) {
+                key = Base64.getDecoder().decode(secret.trim());
+            } else {
+                key = new byte[MAC_LENGTH];
+                new SecureRandom().nextBytes(key);
+            }
+            shared = new SessionTokens(key, 1000L * Long.parseLong(configProps.getProperty(
+                    "flightservice.session.ttl_s", String.valueOf(DEFAULT_TTL_SECONDS))));
+        }
+        return shared;
+    }
+
+    SessionTokens(byte[] key, long ttlMillis) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(this.key);
+                return mac;
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+    }
+
+    /**
+     * Issues a token for a user who has just proven who they are
+     */
+    String issue(String username) {
+        // a token issued in the same millisecond as a revocation would be rejected by it
+        long issued = Math.max(System.currentTimeMillis(), revokedAt(username) + 1);
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer token = ByteBuffer.allocate(2 + name.length + 16 + MAC_LENGTH);
+        token.putShort((short) name.length).put(name).putLong(issued).putLong(issued + ttlMillis);
+        Mac mac = macs.get();
+        mac.update(token.array(), 0, token.position());
+        token.put(mac.doFinal());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    /**
+     * Returns the username a token was issued to, or null if the token is
+     * malformed, forged, expired or revoked
+     */
+    String validate(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        if (bytes.length < 2 + 16 + MAC_LENGTH) return null;
+        ByteBuffer fields = ByteBuffer.wrap(bytes);
+        int nameLength = fields.getShort() & 0xFFFF;
+        int signed = 2 + nameLength + 16;
+        if (bytes.length != signed + MAC_LENGTH) return null;
+
+        Mac mac = macs.get();
+        mac.update(bytes, 0, signed);
+        if (!MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(bytes, signed, bytes.length))) return null;
+
+        String username = new String(bytes, 2, nameLength, StandardCharsets.UTF_8);
+        fields.position(2 + nameLength);
+        long issued = fields.getLong();
+        long expires = fields.getLong();
+        if (System.currentTimeMillis() >= expires) return null;
+        if (issued <= revokedAt(username)) return null;
+        return username;
+    }
+
+    /**
+     * Rejects every token issued to the user so far
+     */
+    void revoke(String username) {
+        long now = System.currentTimeMillis();
+        // tokens issued since the last revocation may be stamped up to a millisecond past it
+        long at = Math.max(now, revokedAt(username) + 1);
+        // revocations older than the longest token life cover nothing that is still valid
+        revoked.values().removeIf(previous -> previous + ttlMillis < now);
+        revoked.merge(userKey(username), at, Math::max);
+    }
+
+    /**
+     * Rejects every token issued so far, for when the users they name are
+     * cleared
+     */
+    void revokeAll() {
+        long at = Math.max(System.currentTimeMillis(), revokedAll + 1);
+        for (long previous : revoked.values()) {
+            at = Math.max(at, previous + 1);
+        }
+        revokedAll = at;
+        revoked.clear();
+    }
+
+    private long revokedAt(String username) {
+        Long at = revoked.get(userKey(username));
+        return at == null ? revokedAll : Math.max(at, revokedAll);
+    }
+
+    /*
+     * usernames are case insensitive, as they are in the Users table
+     */
+    private static String userKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of a single connection, keyed by their SQL text.
+ * <p>
+ * Each statement is prepared the first time it is asked for and reused for
+ * the lifetime of the connection. Hits and misses are counted per registry
+ * and process-wide, so a steady-state workload can be checked to do no
+ * statement creation at all.
+ */
+class StatementRegistry {
+    private static final AtomicLong totalHits = new AtomicLong();
+    private static final AtomicLong totalMisses = new AtomicLong();
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    StatementRegistry(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Returns the statement for the given SQL, preparing it on first use
+     */
+    PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = conn.prepareStatement(sql);
+            statements.put(sql, statement);
+            misses++;
+            totalMisses.incrementAndGet();
+        } else {
+            hits++;
+            totalHits.incrementAndGet();
+        }
+        return statement;
+    }
+
+    /**
+     * Number of distinct statements prepared on this connection
+     */
+    int size() {
+        return statements.size();
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    /**
+     * Closes every statement of this registry
+     */
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // connection is going away anyway
+            }
+        }
+        statements.clear();
+    }
+
+    /**
+     * Statement lookups answered without preparing, across all connections
+     */
+    static long totalHits() {
+        return totalHits.get();
+    }
+
+    /**
+     * Statements prepared, across all connections
+     */
+    static long totalMisses() {
+        return totalMisses.get();
+    }
+
+    static double hitRatio() {
+        long h = totalHits.get();
+        long total = h + totalMisses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    static String stats() {
+        return String.format("StatementRegistry[hits=%d misses=%d hitRatio=%.4f]",
+                totalHits(), totalMisses(), hitRatio());
+    }
+}
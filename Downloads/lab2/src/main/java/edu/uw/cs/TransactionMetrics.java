@@ -0,0 +1,325 @@
+package edu.uw.cs;
+
+import javax.management.*;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics of the Query transactions, shared by every session.
+ * <p>
+ * For each transaction type it keeps a latency histogram of the whole
+ * transaction including retries, how many ended in an error, and how many
+ * statements they sent to the store. Password hashing is timed as its own
+ * type, "hash". The retry and rollback counts, broken out by SQLState, come
+ * from the {@link RetryPolicy} and the connection waits from the shared
+ * {@link ConnectionPool}s.
+ * <p>
+ * Unless {@code flightservice.metrics.jmx} is false, every type is published
+ * as an MXBean named {@code edu.uw.cs:type=Transaction,name=<type>} and the
+ * pools as {@code edu.uw.cs:type=ConnectionPools}. Setting
+ * {@code flightservice.metrics.dump_interval_s} also prints {@link #toString}
+ * to stderr at that interval.
+ */
+class TransactionMetrics {
+    static final String DOMAIN = "edu.uw.cs";
+
+    // shared instance, configured by the first session that opens a connection
+    private static TransactionMetrics shared;
+
+    private final RetryPolicy retry;
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+    // where new types are published, null when JMX is off
+    private volatile MBeanServer server;
+
+    /**
+     * Attributes of one transaction type
+     */
+    public interface CommandMXBean {
+        long getCount();
+
+        long getFailures();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+
+        double getStatementsPerTransaction();
+
+        long getRetries();
+
+        Map<String, Long> getRollbacksBySqlState();
+    }
+
+    /**
+     * Attributes of the shared connection pools, summed over all of them
+     */
+    public interface ConnectionPoolsMXBean {
+        long getBorrows();
+
+        long getWaits();
+
+        long getTimeouts();
+
+        double getMeanWaitMillis();
+
+        double getMaxWaitMillis();
+
+        int getOpenConnections();
+
+        int getIdleConnections();
+    }
+
+    /**
+     * Returns the process-wide metrics, creating them from the
+     * {@code flightservice.metrics.*} settings in {@code configProps} on first
+     * use.
+     */
+    static synchronized TransactionMetrics shared(Properties configProps, RetryPolicy retry) {
+        if (shared == null) {
+            shared = new TransactionMetrics(retry);
+            if (Boolean.parseBoolean(configProps.getProperty("flightservice.metrics.jmx", "true"))) {
+                shared.register(ManagementFactory.getPlatformMBeanServer());
+            }
+            long interval = Long.parseLong(configProps.getProperty("flightservice.metrics.dump_interval_s", "0"));
+            if (interval > 0) {
+                shared.dumpEvery(interval, System.err);
+            }
+        }
+        return shared;
+    }
+
+    TransactionMetrics(RetryPolicy retry) {
+        this.retry = retry;
+    }
+
+    /**
+     * Records a finished transaction
+     *
+     * @param statements statements it sent to the store, over all attempts
+     * @param failed     whether it ended in an error
+     */
+    void record(String type, long nanos, long statements, boolean failed) {
+        Command command = command(type);
+        command.latency.record(nanos);
+        command.statements.add(statements);
+        if (failed) command.failures.increment();
+    }
+
+    /**
+     * Records the time one password hash took, queueing included
+     */
+    void recordHash(long nanos) {
+        command("hash").latency.record(nanos);
+    }
+
+    /**
+     * Publishes the MXBeans of the existing and all future transaction types
+     */
+    synchronized void register(MBeanServer server) {
+        this.server = server;
+        register(new ConnectionPools(), "type=ConnectionPools");
+        for (Command command : commands.values()) {
+            register(command, "type=Transaction,name=" + command.type);
+        }
+    }
+
+    /**
+     * Prints the metrics to {@code out} every {@code seconds} seconds from a
+     * daemon thread
+     */
+    void dumpEvery(long seconds, PrintStream out) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "transaction-metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(this), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The metrics of a transaction type, or null if none has run yet
+     */
+    CommandMXBean get(String type) {
+        return commands.get(type);
+    }
+
+    private Command command(String type) {
+        Command command = commands.get(type);
+        if (command == null) {
+            synchronized (this) {
+                command = commands.get(type);
+                if (command == null) {
+                    command = new Command(type);
+                    commands.put(type, command);
+                    if (server != null) register(command, "type=Transaction,name=" + type);
+                }
+            }
+        }
+        return command;
+    }
+
+    private void register(Object mbean, String properties) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(mbean, name);
+        } catch (JMException ex) {
+            // metrics stay available through toString
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TransactionMetrics\n");
+        for (Command command : new TreeMap<>(commands).values()) {
+            sb.append(String.format("  %-12s count=%d failed=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms "
+                            + "max=%.3fms statements/tx=%.2f retries=%d rollbacks=%s%n",
+                    command.type, command.getCount(), command.getFailures(), command.getMeanMillis(),
+                    command.getP50Millis(), command.getP99Millis(), command.getP999Millis(),
+                    command.getMaxMillis(), command.getStatementsPerTransaction(), command.getRetries(),
+                    command.getRollbacksBySqlState()));
+        }
+        ConnectionPools pools = new ConnectionPools();
+        if (pools.getBorrows() > 0) {
+            sb.append(String.format("  pools        borrows=%d waits=%d timeouts=%d meanWait=%.3fms "
+                            + "maxWait=%.3fms open=%d idle=%d%n",
+                    pools.getBorrows(), pools.getWaits(), pools.getTimeouts(), pools.getMeanWaitMillis(),
+                    pools.getMaxWaitMillis(), pools.getOpenConnections(), pools.getIdleConnections()));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * counters of one transaction type
+     */
+    private final class Command implements CommandMXBean {
+        final String type;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder statements = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        Command(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public long getCount() {
+            return latency.count();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return latency.mean() / 1e6;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return latency.percentile(0.50) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return latency.percentile(0.99) / 1e6;
+        }
+
+        @Override
+        public double getP999Millis() {
+            return latency.percentile(0.999) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return latency.max() / 1e6;
+        }
+
+        @Override
+        public double getStatementsPerTransaction() {
+            long count = latency.count();
+            return count == 0 ? 0 : statements.sum() / (double) count;
+        }
+
+        @Override
+        public long getRetries() {
+            RetryPolicy.Stats stats = retry.stats(type);
+            return stats == null ? 0 : stats.retries.get();
+        }
+
+        @Override
+        public Map<String, Long> getRollbacksBySqlState() {
+            RetryPolicy.Stats stats = retry.stats(type);
+            return stats == null ? Collections.emptyMap() : stats.rollbacksBySqlState();
+        }
+    }
+
+    /*
+     * sums over every shared connection pool
+     */
+    private static final class ConnectionPools implements ConnectionPoolsMXBean {
+        @Override
+        public long getBorrows() {
+            long sum = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) sum += pool.borrows();
+            return sum;
+        }
+
+        @Override
+        public long getWaits() {
+            long sum = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) sum += pool.waits();
+            return sum;
+        }
+
+        @Override
+        public long getTimeouts() {
+            long sum = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) sum += pool.timeouts();
+            return sum;
+        }
+
+        @Override
+        public double getMeanWaitMillis() {
+            long borrows = 0;
+            long nanos = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) {
+                borrows += pool.borrows();
+                nanos += pool.waitNanos();
+            }
+            return borrows == 0 ? 0 : nanos / 1e6 / borrows;
+        }
+
+        @Override
+        public double getMaxWaitMillis() {
+            long max = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) max = Math.max(max, pool.maxWaitNanos());
+            return max / 1e6;
+        }
+
+        @Override
+        public int getOpenConnections() {
+            int sum = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) sum += pool.openConnections();
+            return sum;
+        }
+
+        @Override
+        public int getIdleConnections() {
+            int sum = 0;
+            for (ConnectionPool pool : ConnectionPool.all()) sum += pool.idleConnections();
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package edu.uw.cs;
+
+import java.sql.Connection;
+import java.util.Locale;
+
+/**
+ * Isolation requirements of a transaction, declared by each
+ * {@code transaction_*} method in Query.
+ * <p>
+ * Transactions that write run at SERIALIZABLE, with UPDLOCK hints on the rows
+ * they read before updating so two sessions cannot both take shared locks and
+ * then deadlock converting them. Read-only transactions run at the configured
+ * read isolation, READ COMMITTED unless {@code flightservice.read_isolation}
+ * says otherwise, so they do not hold range locks that block bookings.
+ * SNAPSHOT gives them a consistent view without taking any shared locks but
+ * needs {@code ALLOW_SNAPSHOT_ISOLATION} enabled on the database.
+ */
+enum TransactionProfile {
+    /**
+     * Only reads, e.g. login and listing reservations
+     */
+    READ_ONLY,
+    /**
+     * Reads and writes, e.g. booking, paying and cancelling
+     */
+    READ_WRITE;
+
+    /**
+     * SQL Server's snapshot isolation level, the value of
+     * {@code SQLServerConnection.TRANSACTION_SNAPSHOT}
+     */
+    static final int TRANSACTION_SNAPSHOT = 0x1000;
+
+    /**
+     * Isolation level this profile runs at, given the configured read isolation
+     */
+    int isolation(int readIsolation) {
+        return this == READ_ONLY ? readIsolation : Connection.TRANSACTION_SERIALIZABLE;
+    }
+
+    /**
+     * Parses a {@code flightservice.read_isolation} setting: one of
+     * {@code snapshot}, {@code read_committed}, {@code repeatable_read} or
+     * {@code serializable}.
+     */
+    static int parseIsolation(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "snapshot":
+                return TRANSACTION_SNAPSHOT;
+            case "read_committed":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            case "repeatable_read":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "serializable":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                throw new IllegalArgumentException("Unknown isolation level: " + name);
+        }
+    }
+}
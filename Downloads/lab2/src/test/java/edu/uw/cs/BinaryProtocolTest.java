@@ -0,0 +1,233 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binary frames give the same responses as the text commands, and malformed
+ * frames are rejected
+ */
+public class BinaryProtocolTest {
+  private static final List<Flight> FLIGHTS = Arrays.asList(
+      new Flight(1, 1, "AA", "10", "Seattle WA", "Boston MA", 300, 5, 100),
+      new Flight(2, 1, "AA", "20", "Seattle WA", "Chicago IL", 120, 5, 50),
+      new Flight(3, 1, "AA", "30", "Chicago IL", "Boston MA", 150, 5, 60),
+      new Flight(4, 1, "UA", "40", "Seattle WA", "Boston MA", 320, 5, 90));
+
+  /**
+   * One step of the script: the text command and the same command as a
+   * binary opcode and arguments. "$PAGE" and "$SESSION" stand for the last
+   * page and session tokens of the run.
+   */
+  private static final Object[][] SCRIPT = {
+      {"token", BinaryProtocol.TOKEN},
+      {"create user1 pw 1000", BinaryProtocol.CREATE, "user1", "pw", 1000},
+      {"login user1 pw", BinaryProtocol.LOGIN, "user1", "pw"},
+      {"search \"Seattle WA\" \"Boston MA\" 0 1 3", BinaryProtocol.SEARCH, "Seattle WA", "Boston MA", false, 1, 3},
+      {"search \"Seattle WA\" \"Boston MA\" 1 1 3", BinaryProtocol.SEARCH, "Seattle WA", "Boston MA", true, 1, 3},
+      {"book 0", BinaryProtocol.BOOK, 0},
+      {"reservations", BinaryProtocol.RESERVATIONS},
+      {"pay 1", BinaryProtocol.PAY, 1},
+      {"searchpage \"Seattle WA\" \"Boston MA\" 0 1 1", BinaryProtocol.SEARCH_PAGE, "Seattle WA", "Boston MA", false,
+          1, 1},
+      {"next $PAGE", BinaryProtocol.NEXT_PAGE, "$PAGE"},
+      {"next garbage", BinaryProtocol.NEXT_PAGE, "garbage"},
+      {"routes \"Seattle WA\" \"Boston MA\" 1 3 5", BinaryProtocol.ROUTES, "Seattle WA", "Boston MA", 1, 3, 5},
+      {"cancel 1", BinaryProtocol.CANCEL, 1},
+      {"reservations", BinaryProtocol.RESERVATIONS},
+      {"token", BinaryProtocol.TOKEN},
+      {"resume $SESSION", BinaryProtocol.RESUME, "$SESSION"},
+      {"revoke", BinaryProtocol.REVOKE},
+      {"quit", BinaryProtocol.QUIT},
+  };
+
+  private static Properties configProps() {
+    Properties configProps = new Properties();
+    configProps.setProperty("flightservice.metrics.jmx", "false");
+    configProps.setProperty("flightservice.hash.iterations", "10");
+    return configProps;
+  }
+
+  /*
+   * a session on a store of its own over the test flights
+   */
+  private static Query open() throws Exception {
+    Query q = new Query();
+    q.openConnection(configProps(), new InMemoryFlightStore(new InMemoryStorage(FLIGHTS, 16, 1000)));
+    q.prepareStatements();
+    return q;
+  }
+
+  /*
+   * the frame a client would send for the command, as read back by the server
+   */
+  private static ByteBuffer frame(byte opcode, Object... args) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryProtocol.writeRequest(new DataOutputStream(bytes), opcode, args);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    return BinaryProtocol.readFrame(in, ByteBuffer.allocate(16));
+  }
+
+  /*
+   * runs the script, in text or binary, and returns the responses with session tokens masked
+   */
+  private static List<String> run(boolean binary) throws Exception {
+    Query q = open();
+    List<String> responses = new ArrayList<>();
+    String page = "";
+    String session = "";
+    for (Object[] step : SCRIPT) {
+      String response;
+      if (binary) {
+        Object[] args = Arrays.copyOfRange(step, 2, step.length);
+        for (int i = 0; i < args.length; i++) {
+          if ("$PAGE".equals(args[i])) args[i] = page;
+          if ("$SESSION".equals(args[i])) args[i] = session;
+        }
+        response = BinaryProtocol.execute(q, frame((Byte) step[1], args));
+      } else {
+        response = FlightService.execute(q, ((String) step[0]).replace("$PAGE", page).replace("$SESSION", session));
+      }
+      int next = response.indexOf("Next page: ");
+      if (next >= 0) page = response.substring(next + "Next page: ".length()).trim();
+      if (response.startsWith("Session token: ")) {
+        session = response.substring("Session token: ".length()).trim();
+        response = "Session token: <token>\n";
+      }
+      responses.add(response);
+    }
+    q.closeConnection();
+    return responses;
+  }
+
+  /**
+   * Every opcode answers exactly as its text command does
+   */
+  @Test
+  public void sameResponsesAsText() throws Exception {
+    List<String> text = run(false);
+    List<String> binary = run(true);
+    assertEquals(text, binary);
+
+    Set<Byte> covered = new HashSet<>();
+    for (Object[] step : SCRIPT) {
+      covered.add((Byte) step[1]);
+    }
+    for (byte opcode = BinaryProtocol.LOGIN; opcode <= BinaryProtocol.ROUTES; opcode++) {
+      assertTrue("opcode " + opcode + " is not in the script", covered.contains(opcode));
+    }
+    // the script gets past login and finds flights
+    assertEquals("Logged in as user1\n", binary.get(2));
+    assertTrue(binary.get(3).startsWith("Itinerary 0: 2 flight(s), 270 minutes\n"));
+    assertEquals("Booked flight(s), reservation ID: 1\n", binary.get(5));
+    assertEquals("Session token: <token>\n", binary.get(14));
+  }
+
+  @Test
+  public void unknownOpcode() throws Exception {
+    Query q = open();
+    assertEquals("Error: unrecognized opcode 0\n", BinaryProtocol.execute(q, frame((byte) 0)));
+    assertEquals("Error: unrecognized opcode 99\n", BinaryProtocol.execute(q, frame((byte) 99)));
+    assertEquals("Error: unrecognized opcode -1\n", BinaryProtocol.execute(q, frame((byte) -1)));
+  }
+
+  /**
+   * A frame that ends before the arguments of its opcode is malformed
+   */
+  @Test
+  public void underflow() throws Exception {
+    Query q = open();
+    assertEquals(BinaryProtocol.MALFORMED, BinaryProtocol.execute(q, ByteBuffer.allocate(0)));
+    for (Object[] step : SCRIPT) {
+      byte opcode = (Byte) step[1];
+      if (step.length == 2) continue;
+      assertEquals("opcode " + opcode + " without arguments", BinaryProtocol.MALFORMED,
+          BinaryProtocol.execute(q, frame(opcode)));
+    }
+    // the last int of a search is missing
+    assertEquals(BinaryProtocol.MALFORMED, BinaryProtocol.execute(q,
+        frame(BinaryProtocol.SEARCH, "Seattle WA", "Boston MA", true, 1)));
+    // a string longer than the rest of the frame
+    ByteBuffer truncated = ByteBuffer.allocate(4);
+    truncated.put(BinaryProtocol.RESUME).putShort((short) 10).put((byte) 'x').flip();
+    assertEquals(BinaryProtocol.MALFORMED, BinaryProtocol.execute(q, truncated));
+  }
+
+  /**
+   * Frames are read one after another into a buffer that grows as needed
+   */
+  @Test
+  public void readFrames() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryProtocol.writeRequest(out, BinaryProtocol.BOOK, 7);
+    char[] longName = new char[1000];
+    Arrays.fill(longName, 'x');
+    BinaryProtocol.writeRequest(out, BinaryProtocol.RESUME, new String(longName));
+    BinaryProtocol.writeRequest(out, BinaryProtocol.QUIT);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    buffer = BinaryProtocol.readFrame(in, buffer);
+    assertEquals(5, buffer.remaining());
+    assertEquals(BinaryProtocol.BOOK, buffer.get());
+    assertEquals(7, buffer.getInt());
+
+    buffer = BinaryProtocol.readFrame(in, buffer);
+    assertEquals(1003, buffer.remaining());
+    assertTrue(buffer.capacity() >= 1003);
+    assertEquals(BinaryProtocol.RESUME, buffer.get());
+    assertEquals(1000, buffer.getShort());
+
+    ByteBuffer grown = buffer;
+    buffer = BinaryProtocol.readFrame(in, buffer);
+    assertSame(grown, buffer);
+    assertEquals(1, buffer.remaining());
+    assertEquals(BinaryProtocol.QUIT, buffer.get());
+
+    assertNull(BinaryProtocol.readFrame(in, buffer));
+  }
+
+  @Test
+  public void largestFrame() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(BinaryProtocol.MAX_FRAME);
+    out.write(new byte[BinaryProtocol.MAX_FRAME]);
+    ByteBuffer frame = BinaryProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        ByteBuffer.allocate(16));
+    assertEquals(BinaryProtocol.MAX_FRAME, frame.remaining());
+  }
+
+  @Test(expected = IOException.class)
+  public void oversizedFrame() throws Exception {
+    readLength(BinaryProtocol.MAX_FRAME + 1);
+  }
+
+  @Test(expected = IOException.class)
+  public void negativeFrameLength() throws Exception {
+    readLength(-1);
+  }
+
+  @Test(expected = EOFException.class)
+  public void streamEndsInsideFrame() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(10);
+    out.write(new byte[4]);
+    BinaryProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        ByteBuffer.allocate(16));
+  }
+
+  private static void readLength(int length) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new DataOutputStream(bytes).writeInt(length);
+    BinaryProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        ByteBuffer.allocate(16));
+  }
+}
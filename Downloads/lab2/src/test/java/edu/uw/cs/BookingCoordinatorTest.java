@@ -0,0 +1,195 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Group commit of bookings on the in-memory store: requests of a batch get
+ * the results of booking them one at a time in arrival order, and a batch
+ * that fails is booked again one request at a time
+ */
+public class BookingCoordinatorTest {
+  private static final byte[] HASH = {1, 2, 3};
+  private static final byte[] SALT = {4, 5, 6};
+
+  // flights of the fixture the memory store loads
+  private static final Flight WIDE = new Flight(285, 6, "AA", "14", "Kahului HI", "Los Angeles CA", 297, 10, 209);
+  private static final Flight OTHER_WIDE = new Flight(280, 1, "AA", "14", "Kahului HI", "Los Angeles CA", 288, 18,
+      598);
+  private static final Flight LAST_SEAT = new Flight(3087, 6, "AA", "254", "Kahului HI", "Los Angeles CA", 296, 1,
+      857);
+
+  /** Long enough for every request of a test to join the first batch */
+  private static final long WINDOW_MS = 5000;
+
+  private Properties configProps;
+  private FlightStore store;
+
+  private static Properties configProps() {
+    Properties configProps = new Properties();
+    configProps.setProperty("flightservice.storage", "memory");
+    configProps.setProperty("flightservice.memory.flights_csv", FlightServiceTest.FLIGHTS_FIXTURE);
+    configProps.setProperty("flightservice.metrics.jmx", "false");
+    return configProps;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    configProps = configProps();
+    store = Query.openStore(configProps);
+    store.clear();
+    for (String username : Arrays.asList("alice", "bob", "carol", "dave")) {
+      store.createUser(username, HASH, SALT, 1000);
+    }
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    store.close();
+  }
+
+  private BookingCoordinator coordinator(int batchSize) {
+    RetryPolicy retry = RetryPolicy.shared(configProps);
+    return new BookingCoordinator(configProps, retry, new TransactionMetrics(retry), WINDOW_MS, batchSize);
+  }
+
+  /*
+   * books on a thread of its own, and returns once the request is queued: the thread only waits
+   * on its batch after it has handed the request over
+   */
+  private static Future<Integer> arrive(BookingCoordinator coordinator, String username, Flight... itinerary)
+      throws InterruptedException {
+    FutureTask<Integer> booking = new FutureTask<>(() -> coordinator.book(username, Arrays.asList(itinerary)));
+    Thread thread = new Thread(booking);
+    thread.start();
+    while (thread.getState() != Thread.State.WAITING && !booking.isDone()) {
+      Thread.sleep(1);
+    }
+    return booking;
+  }
+
+  private static int result(Future<Integer> booking) throws Exception {
+    return booking.get(30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Of a user's requests for the same day, the first to arrive is booked and
+   * the rest find its reservation, while other days are still open
+   */
+  @Test
+  public void sameUserAndDayInArrivalOrder() throws Exception {
+    BookingCoordinator coordinator = coordinator(5);
+    List<Future<Integer>> bookings = new ArrayList<>();
+    for (int n = 0; n < 4; n++) {
+      bookings.add(arrive(coordinator, n % 2 == 0 ? "alice" : "ALICE", WIDE));
+    }
+    bookings.add(arrive(coordinator, "alice", OTHER_WIDE));
+
+    assertEquals(1, result(bookings.get(0)));
+    for (int n = 1; n < 4; n++) {
+      assertEquals("request " + n, BookingCoordinator.SAME_DAY, result(bookings.get(n)));
+    }
+    assertEquals(2, result(bookings.get(4)));
+    assertEquals(2, store.getReservations("alice").size());
+    assertEquals(9, (int) store.seatsLeftForUpdate(Collections.singletonList(WIDE)).get(WIDE.fid));
+
+    // a later batch sees the committed reservation as well
+    assertEquals(BookingCoordinator.SAME_DAY, coordinator.book("alice", Collections.singletonList(WIDE)));
+  }
+
+  /**
+   * The last seat goes to the first to arrive, and reservation ids follow
+   * arrival order
+   */
+  @Test
+  public void lastSeatInArrivalOrder() throws Exception {
+    BookingCoordinator coordinator = coordinator(4);
+    List<Future<Integer>> bookings = new ArrayList<>();
+    bookings.add(arrive(coordinator, "carol", WIDE));
+    bookings.add(arrive(coordinator, "bob", LAST_SEAT));
+    bookings.add(arrive(coordinator, "alice", LAST_SEAT));
+    bookings.add(arrive(coordinator, "dave", WIDE));
+
+    assertEquals(1, result(bookings.get(0)));
+    assertEquals(2, result(bookings.get(1)));
+    assertEquals(BookingCoordinator.FULL, result(bookings.get(2)));
+    assertEquals(3, result(bookings.get(3)));
+    assertEquals(0, (int) store.seatsLeftForUpdate(Collections.singletonList(LAST_SEAT)).get(LAST_SEAT.fid));
+    assertEquals(Collections.emptyList(), store.getReservations("alice"));
+  }
+
+  /**
+   * However requests race into batches, each user books a day once and a
+   * flight is never booked past its capacity
+   */
+  @Test
+  public void concurrentRequests() throws Exception {
+    RetryPolicy retry = RetryPolicy.shared(configProps);
+    BookingCoordinator coordinator = new BookingCoordinator(configProps, retry, new TransactionMetrics(retry), 1, 3);
+    ExecutorService pool = Executors.newFixedThreadPool(16);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> sameUser = new ArrayList<>();
+    List<Future<Integer>> lastSeat = new ArrayList<>();
+    for (int n = 0; n < 8; n++) {
+      sameUser.add(pool.submit(() -> {
+        start.await();
+        return coordinator.book("alice", Collections.singletonList(WIDE));
+      }));
+      String username = Arrays.asList("bob", "carol", "dave").get(n % 3);
+      lastSeat.add(pool.submit(() -> {
+        start.await();
+        return coordinator.book(username, Collections.singletonList(LAST_SEAT));
+      }));
+    }
+    start.countDown();
+
+    int booked = 0;
+    for (Future<Integer> booking : sameUser) {
+      int result = result(booking);
+      if (result > 0) booked++;
+      else assertEquals(BookingCoordinator.SAME_DAY, result);
+    }
+    assertEquals(1, booked);
+    booked = 0;
+    for (Future<Integer> booking : lastSeat) {
+      int result = result(booking);
+      if (result > 0) booked++;
+      else assertTrue(result == BookingCoordinator.FULL || result == BookingCoordinator.SAME_DAY);
+    }
+    assertEquals(1, booked);
+    pool.shutdown();
+    assertEquals(0, (int) store.seatsLeftForUpdate(Collections.singletonList(LAST_SEAT)).get(LAST_SEAT.fid));
+  }
+
+  /**
+   * A request that cannot be booked fails the batch, which is then booked one
+   * request at a time so that only it fails
+   */
+  @Test
+  public void failedBatchIsBookedOneAtATime() throws Exception {
+    BookingCoordinator coordinator = coordinator(3);
+    Future<Integer> alice = arrive(coordinator, "alice", WIDE);
+    Future<Integer> nobody = arrive(coordinator, "nobody", WIDE);
+    Future<Integer> bob = arrive(coordinator, "bob", WIDE);
+
+    int aliceId = result(alice);
+    int bobId = result(bob);
+    assertTrue(aliceId > 0);
+    assertTrue(bobId > aliceId);
+    try {
+      result(nobody);
+      fail("booked for a user that does not exist");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof SQLException);
+      assertEquals("23000", ((SQLException) ex.getCause()).getSQLState());
+    }
+    assertEquals(1, store.getReservations("alice").size());
+    assertEquals(1, store.getReservations("bob").size());
+    assertEquals(8, (int) store.seatsLeftForUpdate(Collections.singletonList(WIDE)).get(WIDE.fid));
+  }
+}
@@ -0,0 +1,202 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * CommandParser against the regular expression FlightService used to
+ * tokenize commands with, and its parseInt against Integer.parseInt
+ */
+public class CommandParserTest {
+  /** The tokenizer CommandParser replaced */
+  private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+  private final CommandParser parser = new CommandParser();
+
+  /*
+   * tokens of the command as the regular expression found them after String.trim
+   */
+  private static List<String> expected(String command) {
+    Matcher m = TOKEN.matcher(command.trim());
+    List<String> tokens = new ArrayList<>();
+    while (m.find()) {
+      tokens.add(m.group(1) != null ? m.group(1) : m.group(2));
+    }
+    return tokens;
+  }
+
+  private List<String> parsed(String command) {
+    parser.parse(command);
+    List<String> tokens = new ArrayList<>();
+    for (int i = 0; i < parser.count(); i++) {
+      tokens.add(parser.string(i));
+    }
+    return tokens;
+  }
+
+  private void assertSameTokens(String command) {
+    assertEquals("tokens of [" + command + "]", expected(command), parsed(command));
+  }
+
+  @Test
+  public void plainWords() {
+    assertSameTokens("search Seattle Boston 1 1 5");
+    assertSameTokens("   login   user1   pass   ");
+    assertSameTokens("");
+    assertSameTokens("   ");
+    assertEquals(0, parser.count());
+  }
+
+  @Test
+  public void quotedTokens() {
+    assertSameTokens("search \"Seattle WA\" \"Boston MA\" 1 1 5");
+    assertSameTokens("\"a b\"c d");
+    assertSameTokens("a\"b c\"");
+    assertSameTokens("\"  spaced  \"");
+    assertSameTokens("\"a\"\"b\"");
+  }
+
+  @Test
+  public void emptyQuotes() {
+    assertSameTokens("create \"\" pw 10");
+    assertSameTokens("\"\"");
+    assertSameTokens("\"\"\"\"");
+    assertEquals(Arrays.asList("create", "", "pw", "10"), parsed("create \"\" pw 10"));
+  }
+
+  @Test
+  public void unclosedQuotes() {
+    assertSameTokens("search \"Seattle WA");
+    assertSameTokens("\"");
+    assertSameTokens("a \" b");
+    assertSameTokens("\"a\" \"b");
+  }
+
+  @Test
+  public void tabsAndOtherWhitespace() {
+    assertSameTokens("book\t3");
+    assertSameTokens("\tpay \t 1\r\n");
+    assertSameTokens("a\u000Bb\fc");
+    assertSameTokens("\"tab\tinside\"\tafter");
+    // trimmed at the ends like String.trim, but not split on inside
+    assertSameTokens("\u0001book\u00013\u0001");
+    // a no-break space is not whitespace to either
+    assertSameTokens("a\u00A0b");
+  }
+
+  /**
+   * Random commands over the characters that matter to the tokenizer
+   */
+  @Test
+  public void randomCommands() {
+    char[] alphabet = {'a', 'b', '"', ' ', '\t', '\n', '\u0001', '-', '1'};
+    Random random = new Random(42);
+    for (int n = 0; n < 20000; n++) {
+      StringBuilder command = new StringBuilder();
+      int length = random.nextInt(16);
+      for (int k = 0; k < length; k++) {
+        command.append(alphabet[random.nextInt(alphabet.length)]);
+      }
+      assertSameTokens(command.toString());
+    }
+  }
+
+  @Test
+  public void opcodes() {
+    parser.parse("searchpage a b 0 1 2");
+    assertEquals(BinaryProtocol.SEARCH_PAGE, parser.opcode());
+    parser.parse("search a b 0 1 2");
+    assertEquals(BinaryProtocol.SEARCH, parser.opcode());
+    parser.parse("\"quit\"");
+    assertEquals(BinaryProtocol.QUIT, parser.opcode());
+    parser.parse("Quit");
+    assertEquals(0, parser.opcode());
+    parser.parse("");
+    assertEquals(0, parser.opcode());
+  }
+
+  /*
+   * the int Integer.parseInt reads from the token, or null if it throws
+   */
+  private static Integer expectedInt(String token) {
+    try {
+      return Integer.parseInt(token);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  private Integer parsedInt(String command, int i) {
+    parser.parse(command);
+    try {
+      return parser.parseInt(i);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  @Test
+  public void parseIntLikeIntegerParseInt() {
+    String[] tokens = {"0", "-0", "+0", "7", "+7", "-7", "007", "2147483647", "-2147483648", "2147483648",
+        "-2147483649", "99999999999", "-", "+", "--1", "+-1", "1-", "12a", "a12", "1.5", "0x10", "\u0663",
+        "1\u0663", String.valueOf(Integer.MIN_VALUE), String.valueOf(Integer.MAX_VALUE)};
+    for (String token : tokens) {
+      assertEquals("parseInt of " + token, expectedInt(token), parsedInt("book " + token, 1));
+    }
+  }
+
+  @Test
+  public void parseIntBounds() {
+    assertEquals(Integer.MIN_VALUE, (int) parsedInt("pay -2147483648", 1));
+    assertEquals(Integer.MAX_VALUE, (int) parsedInt("pay 2147483647", 1));
+    assertNull(parsedInt("pay -2147483649", 1));
+    assertNull(parsedInt("pay 2147483648", 1));
+  }
+
+  @Test
+  public void parseIntOfEmptyAndQuotedTokens() {
+    assertNull(parsedInt("book \"\"", 1));
+    assertEquals(12, (int) parsedInt("book \"12\"", 1));
+    assertNull(parsedInt("book \" 12\"", 1));
+    try {
+      parser.parse("book \"\"");
+      parser.parseInt(1);
+      fail("parsed an empty token");
+    } catch (NumberFormatException ex) {
+      assertEquals("For input string: \"\"", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void parseIntRandomDigits() {
+    Random random = new Random(7);
+    char[] alphabet = {'0', '1', '5', '9', '-', '+'};
+    for (int n = 0; n < 20000; n++) {
+      StringBuilder token = new StringBuilder();
+      int length = 1 + random.nextInt(12);
+      for (int k = 0; k < length; k++) {
+        token.append(alphabet[random.nextInt(alphabet.length)]);
+      }
+      assertEquals("parseInt of " + token, expectedInt(token.toString()), parsedInt("cancel " + token, 1));
+    }
+  }
+
+  /**
+   * A parser holds any number of tokens, and forgets the previous command
+   */
+  @Test
+  public void manyTokensAndReuse() {
+    StringBuilder command = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      command.append(i).append(i % 2 == 0 ? " " : "\t");
+    }
+    assertSameTokens(command.toString());
+    assertEquals(99, (int) parsedInt(command.toString(), 99));
+    assertSameTokens("quit");
+    assertEquals(1, parser.count());
+  }
+}
@@ -35,6 +35,26 @@ public class FlightServiceTest {
   /** Denotes alternate result */
   static final String SEPARATOR = "|";
 
+  /** Flights of the in-memory store, those the expected outputs of the cases name */
+  static final String FLIGHTS_FIXTURE = "src/test/resources/flights.csv";
+
+  /**
+   * Settings each scenario is run with on top of dbconn.properties: the
+   * database as is, with searches served from the in-memory flight index,
+   * and the in-memory store over the flights fixture
+   */
+  static final Map<String, Properties> MODES = new LinkedHashMap<>();
+  static {
+    MODES.put("jdbc", new Properties());
+    Properties searchIndex = new Properties();
+    searchIndex.setProperty("flightservice.search_index", "true");
+    MODES.put("search_index", searchIndex);
+    Properties memory = new Properties();
+    memory.setProperty("flightservice.storage", "memory");
+    memory.setProperty("flightservice.memory.flights_csv", FLIGHTS_FIXTURE);
+    MODES.put("memory", memory);
+  }
+
   /**
    * Models a single user. Callable from a thread.
    */
@@ -43,10 +63,8 @@ public class FlightServiceTest {
     private List<String> cmds; // commands that this user will execute
     private List<String> results; // the expected results from those commands
 
-    public User(List<String> cmds, List<String> results) throws IOException, SQLException {
-      this.q = new Query();
-      q.openConnection();
-      q.prepareStatements();
+    public User(List<String> cmds, List<String> results, Properties configProps) throws IOException, SQLException {
+      this.q = open(configProps);
       this.cmds = cmds;
       this.results = results;
     }
@@ -70,14 +88,35 @@ public class FlightServiceTest {
     }
   }
 
+  /**
+   * The settings of a mode: those of {@link Query#settings}, with the mode's
+   * own settings on top
+   */
+  static Properties settings(String mode) throws IOException {
+    Properties configProps = Query.settings();
+    configProps.putAll(MODES.get(mode));
+    return configProps;
+  }
+
+  /**
+   * Opens a session on a store of the given settings
+   */
+  static Query open(Properties configProps) throws IOException, SQLException {
+    Query q = new Query();
+    q.openConnection(configProps, Query.openStore(configProps));
+    q.prepareStatements();
+    return q;
+  }
+
   /**
    * Parse the input test case. Format expected is
    * 
    * @param filename test case's path and file name
+   * @param configProps settings of the users' sessions
    * @return new User objects with commands to run and expected results
    * @throws Exception
    */
-  static List<User> parse(String filename) throws IOException, SQLException {
+  static List<User> parse(String filename, Properties configProps) throws IOException, SQLException {
     List<User> users = new ArrayList<>();
     List<String> cmds = new ArrayList<>();
     List<String> results = new ArrayList<>();
@@ -100,7 +139,7 @@ public class FlightServiceTest {
         } else {
           // Result recordings finished for a user so user is fully specified
           results.add(r);
-          users.add(new User(cmds, results));
+          users.add(new User(cmds, results, configProps));
           cmds = new ArrayList<>();
           results = new ArrayList<>();
           r = "";
@@ -160,24 +199,36 @@ public class FlightServiceTest {
     pool = Executors.newFixedThreadPool(MAX_USERS);
   }
 
+  /** The key of MODES the scenario runs in */
+  protected String mode;
   /** A file that will be parsed as a test case scenario */
   protected String file;
 
   /**
-   * Initialize a test case with a file name
+   * Initialize a test case with a mode and a file name
    */
-  public FlightServiceTest(String file) {
+  public FlightServiceTest(String mode, String file) {
+    this.mode = mode;
     this.file = file;
   }
 
   /**
-   * Gets test case scenario files from the specified folder.
+   * Gets test case scenario files from the specified folder, once for every
+   * mode.
    */
-  @Parameterized.Parameters
-  public static List<String> files() throws IOException {
+  @Parameterized.Parameters(name = "{0} {1}")
+  public static List<Object[]> files() throws IOException {
+    List<String> files;
     try (Stream<Path> paths = Files.walk(Paths.get("cases"))) {
-      return paths.filter(Files::isRegularFile).map(p -> p.toAbsolutePath().toString()).collect(Collectors.toList());
+      files = paths.filter(Files::isRegularFile).map(p -> p.toAbsolutePath().toString()).collect(Collectors.toList());
+    }
+    List<Object[]> runs = new ArrayList<>();
+    for (String mode : MODES.keySet()) {
+      for (String file : files) {
+        runs.add(new Object[]{mode, file});
+      }
     }
+    return runs;
   }
 
   /**
@@ -187,9 +238,7 @@ public class FlightServiceTest {
   @Before
   public void clearDB() {
     try {
-      Query q = new Query();
-      q.openConnection();
-      q.prepareStatements();
+      Query q = open(settings(mode));
       q.clearTables();
       q.closeConnection();
     } catch (Exception e) {
@@ -202,10 +251,10 @@ public class FlightServiceTest {
    */
   @Test
   public void runTest() throws Exception {
-    System.out.println("running test scenario: " + this.file);
+    System.out.println("running test scenario: " + this.file + " (" + this.mode + ")");
 
     // Loads the scenario and initializes users
-    List<User> users = parse(this.file);
+    List<User> users = parse(this.file, settings(this.mode));
     List<Future<String>> futures = new ArrayList<>();
     for (User user : users) {
       futures.add(pool.submit(user));
@@ -247,8 +296,8 @@ public class FlightServiceTest {
         outcomesFormatted += outcome.getValue().toString() + "\n";
       }
     }
-    assertTrue(String.format("Failed: actual outputs for %s were: \n%s\n\nPossible outcomes were: \n%s", this.file,
-        outputs, outcomesFormatted), passed);
+    assertTrue(String.format("Failed: actual outputs for %s (%s) were: \n%s\n\nPossible outcomes were: \n%s",
+        this.file, this.mode, outputs, outcomesFormatted), passed);
 
     // Cleanup
     for (User u : users) {
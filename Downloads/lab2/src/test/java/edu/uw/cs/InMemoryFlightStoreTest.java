@@ -0,0 +1,203 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rollback and locking of the in-memory store
+ */
+public class InMemoryFlightStoreTest {
+  /** Lock timeout of the storage, short so timeouts do not slow the tests */
+  private static final long LOCK_TIMEOUT_MS = 100;
+  private static final byte[] HASH = {1, 2, 3};
+  private static final byte[] SALT = {4, 5, 6};
+
+  private static final Flight DIRECT = new Flight(1, 1, "AA", "10", "Seattle WA", "Boston MA", 300, 2, 100);
+  private static final Flight FIRST_LEG = new Flight(2, 1, "AA", "20", "Seattle WA", "Chicago IL", 200, 5, 50);
+  private static final Flight SECOND_LEG = new Flight(3, 1, "AA", "30", "Chicago IL", "Boston MA", 150, 5, 60);
+  private static final Flight LAST_SEAT = new Flight(4, 2, "AA", "40", "Seattle WA", "Boston MA", 310, 1, 90);
+
+  private InMemoryStorage storage;
+  private InMemoryFlightStore store;
+  private InMemoryFlightStore other;
+
+  @Before
+  public void setUp() throws SQLException {
+    storage = new InMemoryStorage(Arrays.asList(DIRECT, FIRST_LEG, SECOND_LEG, LAST_SEAT), 16, LOCK_TIMEOUT_MS);
+    store = new InMemoryFlightStore(storage);
+    other = new InMemoryFlightStore(storage);
+    store.createUser("alice", HASH, SALT, 1000);
+    store.createUser("bob", HASH, SALT, 500);
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+    other.close();
+  }
+
+  /**
+   * A rolled back booking gives back its seats, reservation and payment
+   */
+  @Test
+  public void rollbackUndoesBooking() throws SQLException {
+    List<Flight> itinerary = Arrays.asList(FIRST_LEG, SECOND_LEG);
+    store.begin(TransactionProfile.READ_WRITE);
+    assertTrue(store.reserveSeats(itinerary));
+    int id = store.book("alice", itinerary);
+    store.setPaid(id);
+    store.addBalance("alice", -110);
+    store.rollback();
+
+    assertEquals(Collections.emptyList(), store.getReservations("alice"));
+    assertEquals(1000, store.getBalanceForUpdate("alice"));
+    Map<Integer, Integer> left = store.seatsLeftForUpdate(itinerary);
+    assertEquals(5, (int) left.get(FIRST_LEG.fid));
+    assertEquals(5, (int) left.get(SECOND_LEG.fid));
+  }
+
+  /**
+   * Committed writes stay, and a later rollback only undoes its own
+   */
+  @Test
+  public void rollbackKeepsCommittedWrites() throws SQLException {
+    store.begin(TransactionProfile.READ_WRITE);
+    assertTrue(store.reserveSeats(Collections.singletonList(DIRECT)));
+    int id = store.book("alice", Collections.singletonList(DIRECT));
+    store.commit();
+
+    store.begin(TransactionProfile.READ_WRITE);
+    FlightStore.Reservation reservation = store.getReservationForUpdate(id, "alice");
+    store.releaseSeats(reservation);
+    store.deleteReservation(id);
+    store.setBalance("alice", 0);
+    store.rollback();
+
+    List<FlightStore.Reservation> reservations = store.getReservations("alice");
+    assertEquals(1, reservations.size());
+    assertEquals(id, reservations.get(0).id);
+    assertEquals(Collections.singletonList(DIRECT), reservations.get(0).flights);
+    assertEquals(1000, store.getBalanceForUpdate("alice"));
+    assertEquals(1, (int) store.seatsLeftForUpdate(Collections.singletonList(DIRECT)).get(DIRECT.fid));
+  }
+
+  /**
+   * A user created in a rolled back transaction does not exist, and its name
+   * can be taken again
+   */
+  @Test
+  public void rollbackUndoesCreateUser() throws SQLException {
+    store.begin(TransactionProfile.READ_WRITE);
+    store.createUser("carol", HASH, SALT, 10);
+    store.rollback();
+    assertNull(store.getUser("carol"));
+
+    store.createUser("Carol", HASH, SALT, 20);
+    assertEquals(20, store.getUser("carol").balance);
+  }
+
+  /**
+   * Duplicate usernames fail like the primary key of Users, ignoring case
+   */
+  @Test
+  public void duplicateUserIsAConstraintViolation() throws SQLException {
+    try {
+      store.createUser("ALICE", HASH, SALT, 10);
+      fail("created a duplicate user");
+    } catch (SQLIntegrityConstraintViolationException ex) {
+      assertEquals("23000", ex.getSQLState());
+    }
+    assertEquals(1000, store.getUser("alice").balance);
+  }
+
+  /**
+   * A flight with no seats left cannot be reserved, and a failed reservation
+   * takes no seat on the other legs
+   */
+  @Test
+  public void fullFlightIsNotReserved() throws SQLException {
+    assertTrue(store.reserveSeats(Collections.singletonList(LAST_SEAT)));
+    assertFalse(other.reserveSeats(Collections.singletonList(LAST_SEAT)));
+    assertFalse(other.reserveSeats(Arrays.asList(DIRECT, LAST_SEAT)));
+    assertEquals(2, (int) other.seatsLeftForUpdate(Collections.singletonList(DIRECT)).get(DIRECT.fid));
+  }
+
+  /**
+   * A row locked by a read-write transaction times out another session's
+   * write with the retryable error SQL Server reports, until the transaction
+   * ends
+   */
+  @Test
+  public void lockTimeoutUntilCommit() throws SQLException {
+    store.begin(TransactionProfile.READ_WRITE);
+    store.getBalanceForUpdate("alice");
+
+    long start = System.nanoTime();
+    try {
+      other.addBalance("alice", 1);
+      fail("wrote a row locked by another transaction");
+    } catch (SQLTransactionRollbackException ex) {
+      assertEquals("40001", ex.getSQLState());
+      assertEquals(1222, ex.getErrorCode());
+      assertTrue(RetryPolicy.isRetryable(ex));
+    }
+    assertTrue((System.nanoTime() - start) / 1_000_000 >= LOCK_TIMEOUT_MS - 10);
+
+    // other users are not locked
+    other.addBalance("bob", 1);
+    store.commit();
+    other.addBalance("alice", 1);
+    assertEquals(1001, other.getBalanceForUpdate("alice"));
+  }
+
+  /**
+   * A rollback releases the locks of the transaction as well
+   */
+  @Test
+  public void rollbackReleasesLocks() throws SQLException {
+    store.begin(TransactionProfile.READ_WRITE);
+    assertTrue(store.reserveSeats(Collections.singletonList(DIRECT)));
+    try {
+      other.reserveSeats(Collections.singletonList(DIRECT));
+      fail("reserved a flight locked by another transaction");
+    } catch (SQLTransactionRollbackException ex) {
+      assertEquals(1222, ex.getErrorCode());
+    }
+    store.rollback();
+    assertTrue(other.reserveSeats(Collections.singletonList(DIRECT)));
+    assertEquals(1, (int) store.seatsLeftForUpdate(Collections.singletonList(DIRECT)).get(DIRECT.fid));
+  }
+
+  /**
+   * Read-only transactions give their locks back after each operation, like
+   * read committed
+   */
+  @Test
+  public void readOnlyTransactionHoldsNoLocks() throws SQLException {
+    store.begin(TransactionProfile.READ_ONLY);
+    store.getUser("alice");
+    store.getReservations("alice");
+    other.addBalance("alice", 5);
+    assertEquals(1005, store.getUser("alice").balance);
+    store.commit();
+  }
+
+  /**
+   * A session takes the locks it already holds again without waiting
+   */
+  @Test
+  public void locksAreReentrant() throws SQLException {
+    store.begin(TransactionProfile.READ_WRITE);
+    store.getBalanceForUpdate("alice");
+    store.addBalance("alice", -1);
+    assertTrue(store.reserveSeats(Collections.singletonList(DIRECT)));
+    assertTrue(store.reserveSeats(Collections.singletonList(DIRECT)));
+    store.commit();
+    assertEquals(999, store.getBalanceForUpdate("alice"));
+    assertEquals(0, (int) store.seatsLeftForUpdate(Collections.singletonList(DIRECT)).get(DIRECT.fid));
+  }
+}
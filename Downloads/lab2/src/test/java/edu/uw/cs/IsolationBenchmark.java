@@ -0,0 +1,155 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Replays the terminals of a test case concurrently under each read isolation
+ * level and reports the throughput of the read-only and read-write commands.
+ * <p>
+ * Every terminal of the case is started {@code copies} times; each copy gets
+ * its own usernames, so terminals of the same copy contend for the same
+ * account just like in the original case. After creating its user and logging
+ * in, each terminal repeats the rest of its script {@code rounds} times.
+ * SNAPSHOT needs {@code ALLOW_SNAPSHOT_ISOLATION} enabled on the database.
+ *
+ * Usage: IsolationBenchmark [case file] [copies] [rounds]
+ */
+public class IsolationBenchmark {
+  private static final String[] LEVELS = {"serializable", "read_committed", "snapshot"};
+
+  public static void main(String[] args) throws Exception {
+    String file = args.length > 0 ? args[0] : "cases/reservations_concurrent.txt";
+    int copies = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    List<List<String>> terminals = parse(file);
+
+    System.out.println(String.format("%s, %d terminals x %d copies, %d rounds",
+        file, terminals.size(), copies, rounds));
+    System.out.println("isolation       commands/sec  reads/sec  writes/sec  failed");
+
+    for (String level : LEVELS) {
+      System.setProperty("flightservice.read_isolation", level);
+      clearTables();
+      System.out.println(String.format("%-15s %s", level, run(terminals, copies, rounds)));
+    }
+  }
+
+  /*
+   * runs every terminal copy on its own thread and returns the formatted rates
+   */
+  private static String run(List<List<String>> terminals, int copies, int rounds) throws Exception {
+    List<Query> sessions = new ArrayList<>();
+    List<List<String>> scripts = new ArrayList<>();
+    for (int copy = 0; copy < copies; copy++) {
+      for (List<String> terminal : terminals) {
+        Query q = new Query();
+        q.openConnection();
+        q.prepareStatements();
+        sessions.add(q);
+        scripts.add(script(terminal, copy, rounds));
+      }
+    }
+
+    AtomicLong reads = new AtomicLong();
+    AtomicLong writes = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(sessions.size());
+    List<Future<?>> done = new ArrayList<>();
+    for (int i = 0; i < sessions.size(); i++) {
+      Query q = sessions.get(i);
+      List<String> script = scripts.get(i);
+      done.add(pool.submit(() -> {
+        start.await();
+        for (String cmd : script) {
+          String out = FlightService.execute(q, cmd);
+          if (out.startsWith("Failed")) failed.incrementAndGet();
+          String name = cmd.trim().split(" ")[0];
+          if (name.equals("reservations") || name.equals("login")) {
+            reads.incrementAndGet();
+          } else if (name.equals("book") || name.equals("pay") || name.equals("cancel")) {
+            writes.incrementAndGet();
+          }
+        }
+        return null;
+      }));
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Future<?> f : done) {
+      f.get();
+    }
+    double elapsed = (System.nanoTime() - begin) / 1e9;
+    pool.shutdown();
+    for (Query q : sessions) {
+      q.closeConnection();
+    }
+
+    long total = 0;
+    for (List<String> script : scripts) {
+      total += script.size();
+    }
+    return String.format("%12.1f  %9.1f  %10.1f  %6d",
+        total / elapsed, reads.get() / elapsed, writes.get() / elapsed, failed.get());
+  }
+
+  /*
+   * the terminal's commands with usernames made unique to the copy, and
+   * everything after login repeated for each round
+   */
+  private static List<String> script(List<String> terminal, int copy, int rounds) {
+    List<String> setup = new ArrayList<>();
+    List<String> body = new ArrayList<>();
+    for (String cmd : terminal) {
+      String[] tokens = cmd.trim().split(" ");
+      if (tokens[0].equals("create") || tokens[0].equals("login")) {
+        tokens[1] = tokens[1] + "_" + copy;
+        setup.add(String.join(" ", tokens));
+      } else if (!tokens[0].equals("quit") && !cmd.trim().isEmpty()) {
+        body.add(cmd);
+      }
+    }
+    List<String> script = new ArrayList<>(setup);
+    for (int i = 0; i < rounds; i++) {
+      script.addAll(body);
+    }
+    return script;
+  }
+
+  /**
+   * The commands of each terminal in a test case, skipping the expected output
+   */
+  static List<List<String>> parse(String file) throws IOException {
+    List<List<String>> terminals = new ArrayList<>();
+    List<String> cmds = new ArrayList<>();
+    boolean isCmd = true;
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String l;
+      while ((l = reader.readLine()) != null) {
+        if (l.startsWith(FlightServiceTest.COMMENTS)) continue;
+        if (l.startsWith(FlightServiceTest.DELIMITER)) {
+          if (isCmd) {
+            terminals.add(cmds);
+            cmds = new ArrayList<>();
+          }
+          isCmd = !isCmd;
+        } else if (isCmd) {
+          cmds.add(l.split(FlightServiceTest.COMMENTS, 2)[0]);
+        }
+      }
+    }
+    return terminals;
+  }
+
+  private static void clearTables() throws Exception {
+    Query q = new Query();
+    q.openConnection();
+    q.prepareStatements();
+    q.clearTables();
+    q.closeConnection();
+  }
+}
@@ -0,0 +1,206 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Replays the terminals of the test cases with many concurrent synthetic
+ * users for a fixed time and reports throughput and latency percentiles per
+ * command type.
+ * <p>
+ * Cases are picked round-robin and started as a whole, every terminal of a
+ * case on its own session and thread, until {@code users} sessions are
+ * running. Each started case gets random usernames of its own, shared by its
+ * terminals, so they contend for the same accounts the way the original case
+ * does while different copies stay independent. A terminal creates its user
+ * and logs in once, then repeats the rest of its script until the time is up,
+ * pausing for an exponentially distributed think time between commands.
+ * Sessions start spread evenly over the ramp-up period, a tenth of the run by
+ * default, so their logins do not all queue for the password hashing pool at
+ * once. Throughput is over the measured run, from the start until the last
+ * session finished its command in flight, ramp-up included.
+ * Responses are not checked against the expected output; a response that
+ * reports a failure is counted per command type. Latencies go to one
+ * {@link LatencyHistogram} per command type, shared by every thread.
+ * Storage and pooling follow the usual {@code flightservice.*} settings,
+ * which can be given as -D options.
+ *
+ * Usage: LoadGenerator [cases folder or file] [users] [seconds] [think ms] [ramp-up seconds]
+ */
+public class LoadGenerator {
+  /** Printed percentiles */
+  private static final double[] PERCENTILES = {0.50, 0.99, 0.999};
+  /** Row of every command together */
+  private static final String ALL = "all";
+
+  public static void main(String[] args) throws Exception {
+    String cases = args.length > 0 ? args[0] : "cases";
+    int users = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+    double thinkMillis = args.length > 3 ? Double.parseDouble(args[3]) : 50;
+    double rampSeconds = args.length > 4 ? Double.parseDouble(args[4]) : seconds / 10.0;
+
+    List<List<List<String>>> scenarios = new ArrayList<>();
+    for (String file : files(cases)) {
+      scenarios.add(IsolationBenchmark.parse(file));
+    }
+    String run = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+
+    // start whole cases until there are enough sessions
+    List<Query> sessions = new ArrayList<>();
+    List<Script> scripts = new ArrayList<>();
+    for (int copy = 0; sessions.size() < users; copy++) {
+      List<List<String>> terminals = scenarios.get(copy % scenarios.size());
+      String suffix = "_" + run + "_" + copy;
+      for (List<String> terminal : terminals) {
+        Query q = new Query();
+        q.openConnection();
+        q.prepareStatements();
+        sessions.add(q);
+        scripts.add(new Script(terminal, suffix));
+      }
+    }
+
+    System.out.println(String.format("%s: %d cases, %d sessions, %d s, %.0f ms think time, %.1f s ramp-up",
+        cases, scenarios.size(), sessions.size(), seconds, thinkMillis, rampSeconds));
+    Map<String, Command> results = new ConcurrentHashMap<>();
+    long elapsed = run(sessions, scripts, results, TimeUnit.SECONDS.toNanos(seconds), (long) (rampSeconds * 1e9),
+        thinkMillis);
+    for (Query q : sessions) {
+      q.closeConnection();
+    }
+    print(new TreeMap<>(results), elapsed / 1e9);
+  }
+
+  /*
+   * runs every session on its own thread until the deadline, recording the stats of each command,
+   * and returns the nanoseconds from the start until the last session finished
+   */
+  private static long run(List<Query> sessions, List<Script> scripts, Map<String, Command> commands, long nanos,
+      long rampNanos, double thinkMillis) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicLong deadline = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(sessions.size());
+    List<Future<?>> done = new ArrayList<>();
+    for (int i = 0; i < sessions.size(); i++) {
+      Query q = sessions.get(i);
+      Script script = scripts.get(i);
+      long delay = rampNanos * i / sessions.size();
+      done.add(pool.submit(() -> {
+        start.await();
+        TimeUnit.NANOSECONDS.sleep(delay);
+        for (String cmd : script.setup) {
+          execute(q, cmd, commands);
+        }
+        while (!script.body.isEmpty() && System.nanoTime() < deadline.get()) {
+          for (String cmd : script.body) {
+            if (System.nanoTime() >= deadline.get()) break;
+            think(thinkMillis);
+            execute(q, cmd, commands);
+          }
+        }
+        return null;
+      }));
+    }
+
+    long begin = System.nanoTime();
+    deadline.set(begin + nanos);
+    start.countDown();
+    for (Future<?> f : done) {
+      f.get();
+    }
+    long elapsed = System.nanoTime() - begin;
+    pool.shutdown();
+    return elapsed;
+  }
+
+  /*
+   * runs one command and records its latency under its command type and under "all"
+   */
+  private static void execute(Query q, String cmd, Map<String, Command> commands) {
+    long begin = System.nanoTime();
+    String out = FlightService.execute(q, cmd);
+    long elapsed = System.nanoTime() - begin;
+    String[] tokens = cmd.trim().split(" ");
+    boolean failed = out.contains("failed") || out.startsWith("Failed") || out.startsWith("Cannot");
+    for (String name : new String[]{tokens[0], ALL}) {
+      Command command = commands.computeIfAbsent(name, k -> new Command());
+      command.latency.record(elapsed);
+      if (failed) command.failures.increment();
+    }
+  }
+
+  private static void think(double meanMillis) throws InterruptedException {
+    if (meanMillis <= 0) return;
+    double millis = -meanMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+    TimeUnit.MICROSECONDS.sleep((long) (millis * 1000));
+  }
+
+  private static List<String> files(String cases) throws IOException {
+    Path path = Paths.get(cases);
+    if (Files.isRegularFile(path)) return Collections.singletonList(path.toString());
+    try (Stream<Path> paths = Files.walk(path)) {
+      return paths.filter(Files::isRegularFile).map(Path::toString).sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static void print(Map<String, Command> results, double seconds) {
+    StringBuilder header = new StringBuilder("command        count     ops/sec");
+    for (double p : PERCENTILES) {
+      header.append(String.format("  %8s", "p" + percentileName(p)));
+    }
+    System.out.println(header.append("       max  failed   (latencies in ms)"));
+    for (Map.Entry<String, Command> entry : results.entrySet()) {
+      if (!entry.getKey().equals(ALL)) System.out.println(row(entry.getKey(), entry.getValue(), seconds));
+    }
+    System.out.println(row(ALL, results.getOrDefault(ALL, new Command()), seconds));
+  }
+
+  private static String row(String name, Command command, double seconds) {
+    LatencyHistogram latency = command.latency;
+    StringBuilder sb = new StringBuilder(String.format("%-12s %7d  %10.1f", name, latency.count(),
+        latency.count() / seconds));
+    for (double p : PERCENTILES) {
+      sb.append(String.format("  %8.2f", latency.percentile(p) / 1e6));
+    }
+    return sb.append(String.format("  %8.2f  %6d", latency.max() / 1e6, command.failures.sum())).toString();
+  }
+
+  private static String percentileName(double p) {
+    String digits = String.valueOf(p * 100);
+    return digits.endsWith(".0") ? digits.substring(0, digits.length() - 2) : digits.replace(".", "");
+  }
+
+  /*
+   * the commands of a terminal: the create and login commands, run once with the usernames made
+   * unique, and the rest, repeated
+   */
+  private static final class Script {
+    final List<String> setup = new ArrayList<>();
+    final List<String> body = new ArrayList<>();
+
+    Script(List<String> terminal, String suffix) {
+      for (String cmd : terminal) {
+        String[] tokens = cmd.trim().split(" ");
+        if ((tokens[0].equals("create") || tokens[0].equals("login")) && tokens.length > 1) {
+          tokens[1] = tokens[1] + suffix;
+          setup.add(String.join(" ", tokens));
+        } else if (!tokens[0].equals("quit") && !cmd.trim().isEmpty()) {
+          body.add(cmd);
+        }
+      }
+    }
+  }
+
+  /*
+   * latencies and failures of one command type over all sessions
+   */
+  private static final class Command {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LongAdder failures = new LongAdder();
+  }
+}
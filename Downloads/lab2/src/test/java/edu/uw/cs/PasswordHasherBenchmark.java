@@ -0,0 +1,73 @@
+package edu.uw.cs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measures how many password verifications per second the hashing pool
+ * sustains for increasing worker counts, up to the number of cores.
+ *
+ * Usage: PasswordHasherBenchmark [seconds per run] [iterations]
+ */
+public class PasswordHasherBenchmark {
+  /** Client threads per hashing worker, enough to keep the queue non-empty */
+  private static final int CLIENTS_PER_WORKER = 2;
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : PasswordHasher.DEFAULT_ITERATIONS;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    System.out.println(String.format("PBKDF2 %s, %d iterations, %d cores, %d s per run",
+        PasswordHasher.ALGORITHM, iterations, cores, seconds));
+    System.out.println("workers  logins/sec  per worker");
+
+    // warm up the JIT before measuring
+    run(cores, iterations, 2);
+
+    for (int workers = 1; workers <= cores; workers = workers < cores ? Math.min(workers * 2, cores) : cores + 1) {
+      double rate = run(workers, iterations, seconds);
+      System.out.println(String.format("%7d  %10.1f  %10.1f", workers, rate, rate / workers));
+    }
+  }
+
+  /**
+   * Hashes continuously through a pool of the given size and returns the
+   * completed hashes per second
+   */
+  private static double run(int workers, int iterations, int seconds) throws InterruptedException {
+    PasswordHasher hasher = new PasswordHasher(workers, workers * CLIENTS_PER_WORKER, iterations);
+    AtomicLong completed = new AtomicLong();
+    AtomicBoolean running = new AtomicBoolean(true);
+    byte[] salt = new byte[16];
+    new Random(42).nextBytes(salt);
+
+    List<Thread> clients = new ArrayList<>();
+    for (int i = 0; i < workers * CLIENTS_PER_WORKER; i++) {
+      Thread t = new Thread(() -> {
+        while (running.get()) {
+          try {
+            hasher.hash("password", salt);
+            completed.incrementAndGet();
+          } catch (RejectedExecutionException e) {
+            Thread.yield();
+          }
+        }
+      });
+      t.start();
+      clients.add(t);
+    }
+
+    long start = System.nanoTime();
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    running.set(false);
+    long count = completed.get();
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    for (Thread t : clients) {
+      t.join();
+    }
+    hasher.shutdown();
+    return count / elapsed;
+  }
+}
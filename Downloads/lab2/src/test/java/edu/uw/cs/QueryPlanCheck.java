@@ -0,0 +1,134 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import javax.xml.parsers.*;
+import org.w3c.dom.*;
+import org.xml.sax.InputSource;
+
+/**
+ * Fails when a hot statement of JdbcFlightStore would scan a whole table
+ * instead of seeking into an index.
+ * <p>
+ * Each statement is compiled with {@code SHOWPLAN_XML} on, so nothing is run,
+ * and the operators of its estimated plan are checked: a table scan or a
+ * clustered or nonclustered index scan of one of the application tables is a
+ * regression. The database of dbconn.properties must have every
+ * SchemaMigrator migration applied and hold the flights data, as plans over
+ * nearly empty tables favour scans. Prints each plan's verdict and exits with
+ * status 1 if any statement scans.
+ *
+ * Usage: QueryPlanCheck [origin city] [destination city] [day]
+ */
+public class QueryPlanCheck {
+  /** Tables that must only be read through seeks */
+  private static final Set<String> CHECKED = new HashSet<>(Arrays.asList(
+      "Flights", "Itineraries", "ItineraryLegs", "Reservations", "Connections"));
+  private static final Set<String> SCANS = new HashSet<>(Arrays.asList(
+      "Table Scan", "Clustered Index Scan", "Index Scan"));
+
+  public static void main(String[] args) throws Exception {
+    String origin = args.length > 0 ? args[0] : "Seattle WA";
+    String destination = args.length > 1 ? args[1] : "Boston MA";
+    int day = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+    // statement and sample parameters, in order
+    Map<String, Object[]> statements = new LinkedHashMap<>();
+    statements.put("direct search", new Object[]{JdbcFlightStore.GET_DIRECT_FLIGHTS,
+        10, origin, destination, day});
+    statements.put("one-stop search", new Object[]{JdbcFlightStore.GET_INDIRECT_FLIGHTS,
+        10, 0, origin, destination, day});
+    statements.put("direct page", new Object[]{JdbcFlightStore.GET_DIRECT_FLIGHTS_AFTER,
+        10, origin, destination, day, 0, 0, 0});
+    statements.put("one-stop page", new Object[]{JdbcFlightStore.GET_INDIRECT_FLIGHTS_AFTER,
+        10, origin, destination, day, 0, 0, 0, 0, 0});
+    statements.put("connections search", new Object[]{JdbcFlightStore.GET_CONNECTIONS,
+        10, 0, origin, destination, day});
+    statements.put("connections page", new Object[]{JdbcFlightStore.GET_CONNECTIONS_AFTER,
+        10, origin, destination, day, 0, 0, 0, 0, 0});
+    statements.put("same-day check", new Object[]{JdbcFlightStore.CHECK_DAY_AVAILABILITY,
+        day, "user1"});
+    statements.put("reservations", new Object[]{JdbcFlightStore.GET_RESERVATIONS, "user1"});
+    statements.put("reservation", new Object[]{JdbcFlightStore.GET_RESERVATION, 1, "user1"});
+
+    Properties configProps = new Properties();
+    try (FileInputStream in = new FileInputStream("dbconn.properties")) {
+      configProps.load(in);
+    }
+    int failed = 0;
+    try (Connection conn = DriverManager.getConnection(JdbcFlightStore.connectionUrl(configProps))) {
+      List<Integer> pending = SchemaMigrator.pending(conn);
+      if (!pending.isEmpty()) {
+        System.out.println("Migrations " + pending + " are not applied; run SchemaMigrator first");
+        System.exit(1);
+      }
+      try (Statement showplan = conn.createStatement()) {
+        showplan.execute("SET SHOWPLAN_XML ON");
+      }
+      for (Map.Entry<String, Object[]> entry : statements.entrySet()) {
+        List<String> scans = scans(plan(conn, entry.getValue()));
+        if (scans.isEmpty()) {
+          System.out.println(String.format("%-20s ok", entry.getKey()));
+        } else {
+          System.out.println(String.format("%-20s SCANS %s", entry.getKey(), scans));
+          failed++;
+        }
+      }
+    }
+    if (failed > 0) {
+      System.out.println(failed + " of " + statements.size() + " statements scan a table");
+      System.exit(1);
+    }
+  }
+
+  /*
+   * the estimated plan XML of the statement, with its sample parameters bound
+   */
+  private static String plan(Connection conn, Object[] statement) throws SQLException {
+    try (PreparedStatement ps = conn.prepareStatement((String) statement[0])) {
+      for (int i = 1; i < statement.length; i++) {
+        if (statement[i] instanceof Integer) {
+          ps.setInt(i, (Integer) statement[i]);
+        } else {
+          ps.setString(i, (String) statement[i]);
+        }
+      }
+      try (ResultSet rs = ps.executeQuery()) {
+        StringBuilder xml = new StringBuilder();
+        // a batch of several statements has one plan document; only the first row is needed
+        if (rs.next()) xml.append(rs.getString(1));
+        return xml.toString();
+      }
+    }
+  }
+
+  /*
+   * "operator of table" for every scan of a checked table in the plan
+   */
+  private static List<String> scans(String planXml) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document plan = factory.newDocumentBuilder().parse(new InputSource(new StringReader(planXml)));
+    List<String> scans = new ArrayList<>();
+    NodeList operators = plan.getElementsByTagNameNS("*", "RelOp");
+    for (int i = 0; i < operators.getLength(); i++) {
+      Element operator = (Element) operators.item(i);
+      String physicalOp = operator.getAttribute("PhysicalOp");
+      if (!SCANS.contains(physicalOp)) continue;
+      // the scanned object is named by the operator's own IndexScan or TableScan child
+      for (Node child = operator.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (!(child instanceof Element)) continue;
+        NodeList objects = ((Element) child).getElementsByTagNameNS("*", "Object");
+        if (objects.getLength() == 0) continue;
+        Element object = (Element) objects.item(0);
+        String table = object.getAttribute("Table").replace("[", "").replace("]", "");
+        if (CHECKED.contains(table)) {
+          scans.add(physicalOp + " of " + table + " " + object.getAttribute("Index"));
+        }
+        break;
+      }
+    }
+    return scans;
+  }
+}
@@ -0,0 +1,204 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * RouteFinder against every simple path of small graphs, and routes of many
+ * legs booked and canceled through the in-memory store
+ */
+public class RouteFinderTest {
+  private static final String[] CITIES = {"a", "b", "c", "d", "e", "f"};
+
+  /*
+   * a day of random flights between the cities, with few distinct times so that many routes tie on
+   * total time, and fids in no particular order
+   */
+  private static List<Flight> randomFlights(Random random, int count) {
+    List<Integer> fids = new ArrayList<>();
+    for (int fid = 1; fid <= count; fid++) {
+      fids.add(fid);
+    }
+    Collections.shuffle(fids, random);
+    List<Flight> flights = new ArrayList<>();
+    for (int fid : fids) {
+      String origin = CITIES[random.nextInt(CITIES.length)];
+      String dest = CITIES[random.nextInt(CITIES.length)];
+      if (origin.equals(dest)) continue;
+      flights.add(new Flight(fid, 1, "AA", String.valueOf(fid), origin, dest, 1 + random.nextInt(3), 5, 10));
+    }
+    return flights;
+  }
+
+  /*
+   * the graph RouteFinder takes: flights by origin and destination, sorted by time and then fid
+   */
+  private static Map<String, Map<String, List<Flight>>> graph(List<Flight> flights) {
+    Map<String, Map<String, List<Flight>>> graph = new HashMap<>();
+    for (Flight f : flights) {
+      graph.computeIfAbsent(f.originCity, k -> new HashMap<>())
+          .computeIfAbsent(f.destCity, k -> new ArrayList<>()).add(f);
+    }
+    for (Map<String, List<Flight>> out : graph.values()) {
+      for (List<Flight> parallel : out.values()) {
+        parallel.sort(Comparator.comparingInt((Flight f) -> f.time).thenComparingInt(f -> f.fid));
+      }
+    }
+    return graph;
+  }
+
+  /*
+   * every route of at most maxLegs flights from origin to destination that visits no city twice
+   */
+  private static void simplePaths(List<Flight> flights, String city, String destination, int maxLegs,
+                                  Deque<Flight> path, Set<String> visited, List<List<Flight>> paths) {
+    if (city.equals(destination)) {
+      paths.add(new ArrayList<>(path));
+      return;
+    }
+    if (path.size() == maxLegs) return;
+    for (Flight f : flights) {
+      if (!f.originCity.equals(city) || visited.contains(f.destCity)) continue;
+      path.addLast(f);
+      visited.add(f.destCity);
+      simplePaths(flights, f.destCity, destination, maxLegs, path, visited, paths);
+      visited.remove(f.destCity);
+      path.removeLast();
+    }
+  }
+
+  private static List<List<Flight>> bruteForce(List<Flight> flights, String origin, String destination,
+                                               int maxLegs, int limit) {
+    List<List<Flight>> paths = new ArrayList<>();
+    if (!origin.equals(destination)) {
+      simplePaths(flights, origin, destination, maxLegs, new ArrayDeque<>(),
+          new HashSet<>(Collections.singleton(origin)), paths);
+    }
+    paths.sort(Compare::compare);
+    return paths.subList(0, Math.min(limit, paths.size()));
+  }
+
+  private static List<List<Integer>> fids(List<List<Flight>> routes) {
+    List<List<Integer>> fids = new ArrayList<>();
+    for (List<Flight> route : routes) {
+      List<Integer> legs = new ArrayList<>();
+      for (Flight f : route) {
+        legs.add(f.fid);
+      }
+      fids.add(legs);
+    }
+    return fids;
+  }
+
+  /**
+   * The routes found are the first of all simple paths in Compare order, for
+   * every pair of cities and a range of leg limits and counts
+   */
+  @Test
+  public void sameRoutesAsBruteForce() {
+    Random random = new Random(22);
+    int[] limits = {1, 2, 5, 20, Integer.MAX_VALUE};
+    for (int n = 0; n < 40; n++) {
+      List<Flight> flights = randomFlights(random, 6 + random.nextInt(14));
+      RouteFinder finder = new RouteFinder(graph(flights));
+      for (String origin : CITIES) {
+        for (String destination : CITIES) {
+          for (int maxLegs = 0; maxLegs <= 5; maxLegs++) {
+            for (int limit : limits) {
+              String message = "graph " + n + " " + origin + " to " + destination + " in " + maxLegs + " legs, "
+                  + limit + " routes";
+              assertEquals(message, fids(bruteForce(flights, origin, destination, maxLegs, limit)),
+                  fids(finder.find(origin, destination, maxLegs, limit)));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Ties on total time go to the route with the smaller fids leg by leg, and
+   * a route that runs out of legs first counts its missing fids as 0
+   */
+  @Test
+  public void tiesBrokenByFids() {
+    List<Flight> flights = Arrays.asList(
+        new Flight(5, 1, "AA", "5", "a", "d", 6, 5, 10),
+        new Flight(3, 1, "AA", "3", "a", "b", 3, 5, 10),
+        new Flight(9, 1, "AA", "9", "b", "d", 3, 5, 10),
+        new Flight(2, 1, "AA", "2", "b", "d", 3, 5, 10),
+        new Flight(4, 1, "AA", "4", "a", "c", 2, 5, 10),
+        new Flight(1, 1, "AA", "1", "c", "b", 1, 5, 10),
+        new Flight(7, 1, "AA", "7", "c", "d", 4, 5, 10));
+    List<List<Flight>> routes = new RouteFinder(graph(flights)).find("a", "d", 3, 10);
+    assertEquals(Arrays.asList(
+        Arrays.asList(3, 2), Arrays.asList(3, 9), Arrays.asList(4, 1, 2), Arrays.asList(4, 1, 9),
+        Arrays.asList(4, 7), Collections.singletonList(5)), fids(routes));
+  }
+
+  @Test
+  public void noRoutes() {
+    RouteFinder finder = new RouteFinder(graph(Collections.singletonList(
+        new Flight(1, 1, "AA", "1", "a", "b", 10, 5, 10))));
+    assertEquals(Collections.emptyList(), finder.find("b", "a", 3, 5));
+    assertEquals(Collections.emptyList(), finder.find("a", "a", 3, 5));
+    assertEquals(Collections.emptyList(), finder.find("a", "z", 3, 5));
+    assertEquals(Collections.emptyList(), finder.find("a", "b", 0, 5));
+    assertEquals(Collections.emptyList(), finder.find("a", "b", 1, 0));
+  }
+
+  /**
+   * A route of three legs is booked, paid and canceled like any itinerary,
+   * taking one seat on each leg and giving them all back
+   */
+  @Test
+  public void bookAndCancelRouteInMemory() throws Exception {
+    Flight first = new Flight(1, 1, "AA", "10", "Seattle WA", "Denver CO", 150, 3, 100);
+    Flight second = new Flight(2, 1, "AA", "20", "Denver CO", "Chicago IL", 120, 3, 80);
+    Flight third = new Flight(3, 1, "AA", "30", "Chicago IL", "Boston MA", 130, 3, 70);
+    Flight direct = new Flight(4, 1, "UA", "40", "Seattle WA", "Boston MA", 500, 3, 300);
+    List<Flight> legs = Arrays.asList(first, second, third);
+    InMemoryStorage storage = new InMemoryStorage(Arrays.asList(first, second, third, direct), 16, 1000);
+
+    Properties configProps = new Properties();
+    configProps.setProperty("flightservice.metrics.jmx", "false");
+    configProps.setProperty("flightservice.hash.iterations", "10");
+    Query q = new Query();
+    q.openConnection(configProps, new InMemoryFlightStore(storage));
+    q.prepareStatements();
+
+    assertEquals("Created user user1\n", FlightService.execute(q, "create user1 pw 1000"));
+    assertEquals("Logged in as user1\n", FlightService.execute(q, "login user1 pw"));
+    String routes = FlightService.execute(q, "routes \"Seattle WA\" \"Boston MA\" 1 3 5");
+    assertTrue(routes, routes.startsWith("Itinerary 0: 3 flight(s), 400 minutes\n"));
+    assertTrue(routes, routes.contains("Itinerary 1: 1 flight(s), 500 minutes\n"));
+    // two legs are not enough for the fast route
+    assertTrue(FlightService.execute(q, "routes \"Seattle WA\" \"Boston MA\" 1 2 5")
+        .startsWith("Itinerary 0: 1 flight(s), 500 minutes\n"));
+
+    FlightService.execute(q, "routes \"Seattle WA\" \"Boston MA\" 1 3 5");
+    assertEquals("Booked flight(s), reservation ID: 1\n", FlightService.execute(q, "book 0"));
+    InMemoryFlightStore seats = new InMemoryFlightStore(storage);
+    for (int left : seats.seatsLeftForUpdate(legs).values()) {
+      assertEquals(2, left);
+    }
+    assertEquals(3, (int) seats.seatsLeftForUpdate(Collections.singletonList(direct)).get(direct.fid));
+
+    StringBuilder reservation = new StringBuilder();
+    ItineraryRenderer.reservation(reservation, 1, false, legs);
+    assertEquals(reservation.toString(), FlightService.execute(q, "reservations"));
+    assertEquals("Paid reservation: 1 remaining balance: 750\n", FlightService.execute(q, "pay 1"));
+
+    assertEquals("Canceled reservation 1\n", FlightService.execute(q, "cancel 1"));
+    assertEquals("No reservations found\n", FlightService.execute(q, "reservations"));
+    for (int left : seats.seatsLeftForUpdate(legs).values()) {
+      assertEquals(3, left);
+    }
+    assertEquals(1000, seats.getUser("user1").balance);
+    seats.close();
+    q.closeConnection();
+  }
+}
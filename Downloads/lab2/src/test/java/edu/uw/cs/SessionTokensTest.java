@@ -0,0 +1,160 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Issuing, checking and revoking session tokens
+ */
+public class SessionTokensTest {
+  private static final long HOUR = 3600_000;
+
+  private static byte[] key(int seed) {
+    byte[] key = new byte[32];
+    new Random(seed).nextBytes(key);
+    return key;
+  }
+
+  private final SessionTokens tokens = new SessionTokens(key(1), HOUR);
+
+  @Test
+  public void issuedTokenNamesItsUser() {
+    assertEquals("alice", tokens.validate(tokens.issue("alice")));
+    assertEquals("Bob", tokens.validate(tokens.issue("Bob")));
+  }
+
+  /**
+   * Tokens of a server with the same key are accepted, others are not
+   */
+  @Test
+  public void sharedKey() {
+    String token = tokens.issue("alice");
+    assertEquals("alice", new SessionTokens(key(1), HOUR).validate(token));
+    assertNull(new SessionTokens(key(2), HOUR).validate(token));
+  }
+
+  @Test
+  public void forgedMac() {
+    byte[] token = Base64.getUrlDecoder().decode(tokens.issue("alice"));
+    for (int i = token.length - 32; i < token.length; i++) {
+      byte[] forged = token.clone();
+      forged[i] ^= 1;
+      assertNull("flipped MAC byte " + i, tokens.validate(encode(forged)));
+    }
+  }
+
+  /**
+   * Changing a signed field without the key breaks the MAC
+   */
+  @Test
+  public void forgedFields() {
+    byte[] token = Base64.getUrlDecoder().decode(tokens.issue("alice"));
+    byte[] otherUser = token.clone();
+    otherUser[2] = 'b';
+    assertNull(tokens.validate(encode(otherUser)));
+
+    byte[] longerLife = token.clone();
+    ByteBuffer.wrap(longerLife).putLong(2 + 5 + 8, Long.MAX_VALUE);
+    assertNull(tokens.validate(encode(longerLife)));
+
+    // the same fields, signed with another key
+    byte[] name = "admin".getBytes(StandardCharsets.UTF_8);
+    byte[] resigned = Base64.getUrlDecoder().decode(new SessionTokens(key(3), HOUR).issue("admin"));
+    assertEquals(2 + name.length + 16 + 32, resigned.length);
+    assertNull(tokens.validate(encode(resigned)));
+  }
+
+  @Test
+  public void truncatedToken() {
+    String token = tokens.issue("alice");
+    for (int length = 0; length < token.length(); length++) {
+      assertNull("first " + length + " characters", tokens.validate(token.substring(0, length)));
+    }
+    byte[] bytes = Base64.getUrlDecoder().decode(token);
+    assertNull(tokens.validate(encode(Arrays.copyOf(bytes, bytes.length - 1))));
+    assertNull(tokens.validate(encode(Arrays.copyOf(bytes, bytes.length + 1))));
+  }
+
+  @Test
+  public void garbageToken() {
+    assertNull(tokens.validate(""));
+    assertNull(tokens.validate("not a token"));
+    assertNull(tokens.validate("!!!!"));
+    assertNull(tokens.validate("AAAA"));
+    // a name length far past the end of the token
+    byte[] bytes = new byte[2 + 16 + 32];
+    bytes[0] = (byte) 0xFF;
+    bytes[1] = (byte) 0xFF;
+    assertNull(tokens.validate(encode(bytes)));
+    byte[] random = new byte[200];
+    new Random(5).nextBytes(random);
+    assertNull(tokens.validate(encode(random)));
+  }
+
+  @Test
+  public void expiredToken() throws InterruptedException {
+    SessionTokens shortLived = new SessionTokens(key(1), 20);
+    String token = shortLived.issue("alice");
+    Thread.sleep(50);
+    assertNull(shortLived.validate(token));
+    // a token of no life expires as it is issued
+    assertNull(new SessionTokens(key(1), 0).validate(new SessionTokens(key(1), 0).issue("alice")));
+  }
+
+  /**
+   * Revoking a user rejects their earlier tokens, in any case, and no one
+   * else's
+   */
+  @Test
+  public void revokeOneUser() {
+    String alice = tokens.issue("alice");
+    String bob = tokens.issue("bob");
+    tokens.revoke("ALICE");
+    assertNull(tokens.validate(alice));
+    assertEquals("bob", tokens.validate(bob));
+    assertEquals("alice", tokens.validate(tokens.issue("alice")));
+  }
+
+  @Test
+  public void revokeAll() {
+    String alice = tokens.issue("alice");
+    String bob = tokens.issue("bob");
+    tokens.revoke("alice");
+    tokens.revokeAll();
+    assertNull(tokens.validate(alice));
+    assertNull(tokens.validate(bob));
+    assertEquals("alice", tokens.validate(tokens.issue("alice")));
+    assertEquals("bob", tokens.validate(tokens.issue("bob")));
+  }
+
+  /**
+   * A token issued in the same millisecond as a revocation is rejected if it
+   * came before it and accepted if it came after it
+   */
+  @Test
+  public void sameMillisecondAsRevocation() {
+    for (int n = 0; n < 1000; n++) {
+      String before = tokens.issue("alice");
+      tokens.revoke("alice");
+      String after = tokens.issue("alice");
+      assertNull("issued before revocation " + n, tokens.validate(before));
+      assertEquals("issued after revocation " + n, "alice", tokens.validate(after));
+    }
+    for (int n = 0; n < 1000; n++) {
+      String before = tokens.issue("bob");
+      tokens.revokeAll();
+      String after = tokens.issue("bob");
+      assertNull("issued before revokeAll " + n, tokens.validate(before));
+      assertEquals("issued after revokeAll " + n, "bob", tokens.validate(after));
+    }
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+}